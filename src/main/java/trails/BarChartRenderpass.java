@@ -4,26 +4,191 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
+import java.util.concurrent.atomic.AtomicReference;
 
 import jkanvas.KanvasContext;
 import jkanvas.painter.Renderpass;
 import jkanvas.util.ArrayUtil;
 
 /**
- * Renders a bar chart with the first bar highlighted.
+ * Renders a bar chart with the first bar highlighted. The values are double
+ * buffered. Updates are computed in a copy of the slots and get published
+ * atomically so that drawing never waits for an update.
  * 
  * @author Joschi <josua.krause@gmail.com>
  */
 public class BarChartRenderpass extends Renderpass {
 
-  /** The slots. */
-  private final double[] slotsA;
-  /** The second slots. */
-  private final double[] slotsB;
-  /** The sum of both slots. */
-  private final double[] sum;
-  /** The offset. */
-  private int off;
+  /**
+   * The values of the bar chart.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  public static final class Slots {
+
+    /** The slots. */
+    private final double[] slotsA;
+    /** The second slots. */
+    private final double[] slotsB;
+    /** The sum of both slots. */
+    private final double[] sum;
+    /** The offset. */
+    private int off;
+    /** The time of the first slot. */
+    private long time;
+    /** The generation of the settings the slots were computed for. */
+    private long generation;
+
+    /**
+     * Creates empty slots.
+     * 
+     * @param slots The number of slots.
+     */
+    Slots(final int slots) {
+      slotsA = new double[slots];
+      slotsB = new double[slots];
+      sum = new double[slots];
+      off = 0;
+      time = Long.MIN_VALUE;
+      generation = -1L;
+    }
+
+    /**
+     * Creates a copy of the given slots.
+     * 
+     * @param other The slots to copy.
+     */
+    private Slots(final Slots other) {
+      slotsA = other.slotsA.clone();
+      slotsB = other.slotsB.clone();
+      sum = other.sum.clone();
+      off = other.off;
+      time = other.time;
+      generation = other.generation;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return A copy of the slots that can be modified.
+     */
+    public Slots copy() {
+      return new Slots(this);
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The number of slots.
+     */
+    public int size() {
+      return slotsA.length;
+    }
+
+    /**
+     * Rotates all slots.
+     * 
+     * @param by The number of slots to rotate. Positive shift means rotating to
+     *          the left.
+     */
+    public void shift(final int by) {
+      off = index(by);
+    }
+
+    /**
+     * Computes the actual index for the given index.
+     * 
+     * @param i The given index.
+     * @return The actual index in the array.
+     */
+    private int index(final int i) {
+      final int t = off + i;
+      if(t > 0) return t % slotsA.length;
+      return (slotsA.length - (-t % slotsA.length)) % slotsA.length;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param i The index.
+     * @param slotA Whether slotA should is returned.
+     * @return The value at the given index.
+     */
+    public double get(final int i, final boolean slotA) {
+      return slotA ? slotsA[index(i)] : slotsB[index(i)];
+    }
+
+    /**
+     * Setter.
+     * 
+     * @param i The index.
+     * @param slotA Whether slotA should be written.
+     * @param v The value at the given index.
+     */
+    public void set(final int i, final boolean slotA, final double v) {
+      if(v < 0) throw new IllegalArgumentException("" + v);
+      final int index = index(i);
+      if(slotA) {
+        slotsA[index] = v;
+      } else {
+        slotsB[index] = v;
+      }
+      sum[index] = slotsA[index] + slotsB[index];
+    }
+
+    /**
+     * Sets consecutive slots at once.
+     * 
+     * @param from The index of the first slot.
+     * @param a The values for slot A.
+     * @param b The values for slot B. Must have the same length as slot A.
+     */
+    public void set(final int from, final int[] a, final int[] b) {
+      if(a.length != b.length) throw new IllegalArgumentException(
+          a.length + " != " + b.length);
+      for(int i = 0; i < a.length; ++i) {
+        final int index = index(from + i);
+        if(a[i] < 0 || b[i] < 0) throw new IllegalArgumentException(a[i] + " " + b[i]);
+        slotsA[index] = a[i];
+        slotsB[index] = b[i];
+        sum[index] = a[i] + b[i];
+      }
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The time of the first slot.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The generation of the settings the slots were computed for.
+     */
+    public long getGeneration() {
+      return generation;
+    }
+
+    /**
+     * Setter.
+     * 
+     * @param time The time of the first slot.
+     * @param generation The generation of the settings the slots were computed
+     *          for.
+     */
+    public void setOrigin(final long time, final long generation) {
+      this.time = time;
+      this.generation = generation;
+    }
+
+  } // Slots
+
+  /** The currently displayed slots. */
+  private final AtomicReference<Slots> front;
   /** The width of the chart. */
   private final double width;
   /** The height of the chart. */
@@ -39,10 +204,7 @@ public class BarChartRenderpass extends Renderpass {
   public BarChartRenderpass(final int slots, final double width, final double height) {
     this.width = width;
     this.height = height;
-    slotsA = new double[slots];
-    slotsB = new double[slots];
-    sum = new double[slots];
-    off = 0;
+    front = new AtomicReference<>(new Slots(slots));
   }
 
   /**
@@ -51,29 +213,29 @@ public class BarChartRenderpass extends Renderpass {
    * @return The number of slots.
    */
   public int size() {
-    return slotsA.length;
+    return front.get().size();
   }
 
   /**
-   * Rotates all slots.
+   * Getter.
    * 
-   * @param by The number of slots to rotate. Positive shift means rotating to
-   *          the left.
+   * @return The currently displayed slots. They must not be modified. Use
+   *         {@link Slots#copy()} to create a back buffer.
    */
-  public void shift(final int by) {
-    off = index(by);
+  public Slots getSlots() {
+    return front.get();
   }
 
   /**
-   * Computes the actual index for the given index.
+   * Publishes new slots.
    * 
-   * @param i The given index.
-   * @return The actual index in the array.
+   * @param expect The slots the update is based on.
+   * @param update The new slots.
+   * @return Whether the slots were published. This fails when the displayed
+   *         slots are no longer the expected ones.
    */
-  private int index(final int i) {
-    final int t = off + i;
-    if(t > 0) return t % slotsA.length;
-    return (slotsA.length - (-t % slotsA.length)) % slotsA.length;
+  public boolean publish(final Slots expect, final Slots update) {
+    return front.compareAndSet(expect, update);
   }
 
   /**
@@ -81,42 +243,25 @@ public class BarChartRenderpass extends Renderpass {
    * 
    * @param i The index.
    * @param slotA Whether slotA should is returned.
-   * @return The value at the given index.
+   * @return The currently displayed value at the given index.
    */
   public double get(final int i, final boolean slotA) {
-    return slotA ? slotsA[index(i)] : slotsB[index(i)];
-  }
-
-  /**
-   * Setter.
-   * 
-   * @param i The index.
-   * @param slotA Whether slotA should be written.
-   * @param v The value at the given index.
-   */
-  public void set(final int i, final boolean slotA, final double v) {
-    if(v < 0) throw new IllegalArgumentException("" + v);
-    final int index = index(i);
-    if(slotA) {
-      slotsA[index] = v;
-    } else {
-      slotsB[index] = v;
-    }
-    sum[index] = slotsA[index] + slotsB[index];
+    return front.get().get(i, slotA);
   }
 
   @Override
   public void draw(final Graphics2D g, final KanvasContext ctx) {
-    final double slotHeight = ArrayUtil.max(sum);
+    final Slots s = front.get();
+    final double slotHeight = ArrayUtil.max(s.sum);
     if(slotHeight == 0) return;
-    final int sCount = slotsA.length;
+    final int sCount = s.size();
     final double slotWidth = sCount;
     final Rectangle2D rect = new Rectangle2D.Double();
     double x = 0.0;
     for(int b = 0; b < sCount; ++b) {
       final double w = width / slotWidth;
-      final double hA = get(b, true) * height / slotHeight;
-      final double hB = get(b, false) * height / slotHeight;
+      final double hA = s.get(b, true) * height / slotHeight;
+      final double hB = s.get(b, false) * height / slotHeight;
       final double h = hA + hB;
       rect.setFrame(x, height - h, w, hA);
       g.setColor(b == 0 ? new Color(0x990000) : new Color(0xfc8d59));
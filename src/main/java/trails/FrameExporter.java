@@ -0,0 +1,274 @@
+package trails;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import jkanvas.animation.AnimationList;
+import jkanvas.animation.Animator;
+import jkanvas.util.Screenshot;
+import trails.io.TripManager;
+import trails.particels.ParticleProvider;
+import trails.particels.TrailRenderpass;
+import trails.routes.TimeSlicer;
+import trails.routes.TripSlicer;
+
+/**
+ * Renders frames off-screen with a fixed clock. The simulation and the
+ * drawing happen in order on the calling thread while the frames are encoded
+ * by a pool of worker threads. At most a bounded number of frames is in
+ * flight. Frames are either written as PNG files or as one stream of raw RGB
+ * frames in order.
+ *
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class FrameExporter implements Animator, AutoCloseable {
+
+  /** The animation list driven by the fixed clock. */
+  private final AnimationList list = new AnimationList();
+  /** The encoding workers. */
+  private final ExecutorService pool;
+  /** The maximal number of frames in flight. */
+  private final int maxPending;
+  /** The current time. */
+  private long time;
+
+  /**
+   * Creates an exporter.
+   *
+   * @param threads The number of encoding threads.
+   */
+  public FrameExporter(final int threads) {
+    if(threads <= 0) throw new IllegalArgumentException("" + threads);
+    pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, "frame-encoder");
+        t.setDaemon(true);
+        return t;
+      }
+
+    });
+    maxPending = threads * 4;
+  }
+
+  @Override
+  public AnimationList getAnimationList() {
+    return list;
+  }
+
+  @Override
+  public void forceNextFrame() {
+    // every frame is computed anyway
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The current time of the fixed clock.
+   */
+  public long getTime() {
+    return time;
+  }
+
+  /**
+   * Exports frames as PNG files.
+   *
+   * @param trails The render pass to export.
+   * @param frameTime The animation time that passes per frame.
+   * @param frames The number of frames.
+   * @param dir The output directory.
+   * @throws IOException I/O Exception.
+   */
+  public void exportPNG(final TrailRenderpass trails, final long frameTime,
+      final int frames, final File dir) throws IOException {
+    Objects.requireNonNull(dir);
+    if(!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+    export(trails, frameTime, frames, new FrameEncoder() {
+
+      @Override
+      public byte[] encode(final int no, final int[] pixels, final int w, final int h)
+          throws IOException {
+        final BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        img.setRGB(0, 0, w, h, pixels, 0, w);
+        final File f = new File(dir, "frame" + Screenshot.padNumber(no, 8) + ".png");
+        ImageIO.write(img, "png", f);
+        return null;
+      }
+
+    }, null);
+  }
+
+  /**
+   * Exports frames as one stream of raw RGB frames.
+   *
+   * @param trails The render pass to export.
+   * @param frameTime The animation time that passes per frame.
+   * @param frames The number of frames.
+   * @param out The output stream. The stream is not closed.
+   * @throws IOException I/O Exception.
+   */
+  public void exportRaw(final TrailRenderpass trails, final long frameTime,
+      final int frames, final OutputStream out) throws IOException {
+    Objects.requireNonNull(out);
+    export(trails, frameTime, frames, new FrameEncoder() {
+
+      @Override
+      public byte[] encode(final int no, final int[] pixels, final int w, final int h) {
+        final byte[] rgb = new byte[pixels.length * 3];
+        int pos = 0;
+        for(final int p : pixels) {
+          rgb[pos++] = (byte) (p >> 16);
+          rgb[pos++] = (byte) (p >> 8);
+          rgb[pos++] = (byte) p;
+        }
+        return rgb;
+      }
+
+    }, out);
+  }
+
+  /**
+   * Encodes a frame.
+   *
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  private interface FrameEncoder {
+
+    /**
+     * Encodes a frame. This method is called by multiple threads.
+     *
+     * @param no The number of the frame.
+     * @param pixels The ARGB pixels of the frame.
+     * @param w The width.
+     * @param h The height.
+     * @return The bytes to write to the output stream in order or
+     *         <code>null</code>.
+     * @throws IOException I/O Exception.
+     */
+    byte[] encode(int no, int[] pixels, int w, int h) throws IOException;
+
+  } // FrameEncoder
+
+  /**
+   * Simulates, renders, and encodes frames.
+   *
+   * @param trails The render pass.
+   * @param frameTime The animation time that passes per frame.
+   * @param frames The number of frames.
+   * @param enc The encoder.
+   * @param out The output stream for the encoded bytes or <code>null</code>.
+   * @throws IOException I/O Exception.
+   */
+  private void export(final TrailRenderpass trails, final long frameTime,
+      final int frames, final FrameEncoder enc, final OutputStream out) throws IOException {
+    final int w = trails.getWidth();
+    final int h = trails.getHeight();
+    final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    final long start = System.currentTimeMillis();
+    for(int f = 0; f < frames; ++f) {
+      list.doAnimate(time);
+      time += frameTime;
+      final int no = f;
+      final int[] pixels = trails.renderFrame(null);
+      pending.addLast(pool.submit(new Callable<byte[]>() {
+
+        @Override
+        public byte[] call() throws Exception {
+          return enc.encode(no, pixels, w, h);
+        }
+
+      }));
+      while(pending.size() >= maxPending) {
+        write(pending.removeFirst(), out);
+      }
+      if(f % 1000 == 0) {
+        System.out.println("frame " + f + " of " + frames + " after "
+            + (System.currentTimeMillis() - start) + "ms");
+      }
+    }
+    while(!pending.isEmpty()) {
+      write(pending.removeFirst(), out);
+    }
+    if(out != null) {
+      out.flush();
+    }
+  }
+
+  /**
+   * Waits for an encoded frame and writes it.
+   *
+   * @param frame The encoded frame.
+   * @param out The output stream or <code>null</code>.
+   * @throws IOException I/O Exception.
+   */
+  private static void write(final Future<byte[]> frame, final OutputStream out)
+      throws IOException {
+    final byte[] bytes;
+    try {
+      bytes = frame.get();
+    } catch(final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch(final ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    if(out != null && bytes != null) {
+      out.write(bytes);
+    }
+  }
+
+  @Override
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Exports a video headless.
+   *
+   * @param args The output directory, the number of frames, and optionally
+   *          <code>raw</code> to write raw RGB frames into one file.
+   * @throws Exception Exception.
+   */
+  public static void main(final String[] args) throws Exception {
+    final File dir = new File(args.length > 0 ? args[0] : "pics/");
+    final int frames = args.length > 1 ? Integer.parseInt(args[1]) : 60 * 60;
+    final boolean raw = args.length > 2 && "raw".equals(args[2]);
+    final int cores = Runtime.getRuntime().availableProcessors();
+    try (TripManager mng = Main.openTripManager();
+        FrameExporter exp = new FrameExporter(cores)) {
+      final TrailRenderpass trails = new TrailRenderpass(exp, 500, 500);
+      final BarChartRenderpass bc = new BarChartRenderpass(60, 450, 30);
+      final TimeSlicer slicer = new TripSlicer(mng, bc, Main.INIT_TIME);
+      new ParticleProvider(exp, trails, slicer, 500);
+      if(raw) {
+        if(!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        final File f = new File(dir, "frames_" + trails.getWidth() + "x"
+            + trails.getHeight() + ".rgb");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+          exp.exportRaw(trails, Main.FRAME_TIME, frames, out);
+        }
+        System.out.println("saved " + f);
+      } else {
+        exp.exportPNG(trails, Main.FRAME_TIME, frames, dir);
+        System.out.println("saved " + frames + " frames to " + dir);
+      }
+    }
+  }
+
+}
@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.io.File;
 import java.io.IOException;
+import java.util.Calendar;
 
 import javax.swing.JCheckBox;
 import javax.swing.JFrame;
@@ -16,6 +17,7 @@ import jkanvas.CanvasSetup;
 import jkanvas.FrameRateDisplayer;
 import jkanvas.animation.AnimatedPainter;
 import jkanvas.animation.AnimationTiming;
+import jkanvas.animation.Animator;
 import jkanvas.painter.Renderpass;
 import jkanvas.painter.SimpleTextHUD;
 import jkanvas.painter.groups.LinearGroup;
@@ -33,6 +35,9 @@ import trails.io.SQLHandler;
 import trails.io.TripManager;
 import trails.particels.ParticleProvider;
 import trails.particels.TrailRenderpass;
+import trails.routes.CountPyramid;
+import trails.routes.SharedTripSlicer;
+import trails.routes.SharedTripSlicer.Window;
 import trails.routes.TimeSlicer;
 import trails.routes.TripSlicer;
 
@@ -55,12 +60,20 @@ public class Main {
   public static final int TRIPS_SOURCE = NY_SOURCE;
   /** The video mode. */
   public static final boolean VIDEO_MODE = false;
+  /** Whether to compare weekdays and weekends side by side. */
+  public static final boolean COMPARE_MODE = false;
+  /** The animation time that passes per frame. */
+  public static final long FRAME_TIME = 5;
+  /** The number of frames per second. */
+  public static final int FRAME_RATE = 60;
   /** The start time offset. */
   public static final long INIT_TIME = (9L * 31L + 1L) * 24L * 60L * 60L * 1000L;
   /** The trail render pass. */
   protected static TrailRenderpass trails;
   /** The current time. */
   protected static long time = 0;
+  /** The clock advancing the simulation independent of the frame rate. */
+  protected static final SimulationClock clock = new SimulationClock(FRAME_TIME, FRAME_RATE);
   /** The frame. */
   private static JFrame frame;
   /** Whether a screenshot is currently made. */
@@ -96,6 +109,49 @@ public class Main {
     }
   }
 
+  /**
+   * Opens the trips of the configured source.
+   *
+   * @return The trip manager.
+   * @throws Exception Exception.
+   */
+  public static TripManager openTripManager() throws Exception {
+    switch(TRIPS_SOURCE) {
+      case GPS_SOURCE:
+        return new SQLHandler("gps_trips");
+      case DC_SOURCE:
+        return new SQLHandler("dc_trips");
+      case NY_SOURCE:
+        return new SQLHandler("ny_trips");
+      case BIN_SOURCE:
+        return BinaryTripManager.open(Resource.getFor("trip_data_1.dat"));
+      default:
+        throw new AssertionError("invalid source: " + TRIPS_SOURCE);
+    }
+  }
+
+  /**
+   * Computes the start of the next monday.
+   *
+   * @param time The time.
+   * @return The midnight of the first monday at or after the given time.
+   */
+  private static long nextMonday(final long time) {
+    final Calendar cal = Calendar.getInstance();
+    cal.setTimeInMillis(time);
+    cal.set(Calendar.HOUR_OF_DAY, 0);
+    cal.set(Calendar.MINUTE, 0);
+    cal.set(Calendar.SECOND, 0);
+    cal.set(Calendar.MILLISECOND, 0);
+    if(cal.getTimeInMillis() < time) {
+      cal.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    while(cal.get(Calendar.DAY_OF_WEEK) != Calendar.MONDAY) {
+      cal.add(Calendar.DAY_OF_MONTH, 1);
+    }
+    return cal.getTimeInMillis();
+  }
+
   /**
    * Starts the main application.
    *
@@ -107,39 +163,31 @@ public class Main {
 
       @Override
       protected long getTime() {
+        if(!VIDEO_MODE) {
+          clock.setStopped(isStopped());
+          return super.getTime();
+        }
         if(isStopped()) return time;
         if(trails == null || !trails.hasFinishedRedraw()) return time;
         trails.ackFinishedRedraw();
         final long t = time;
-        time += 5;
+        time += FRAME_TIME;
         return t;
       }
 
     };
-    p.setFramerate(60);
+    p.setFramerate(FRAME_RATE);
     c = new Canvas(p, true, 600, 600);
-    trails = new TrailRenderpass(p, 500, 500);
-    final TripManager mng;
-    switch(TRIPS_SOURCE) {
-      case GPS_SOURCE:
-        mng = new SQLHandler("gps_trips");
-        break;
-      case DC_SOURCE:
-        mng = new SQLHandler("dc_trips");
-        break;
-      case NY_SOURCE:
-        mng = new SQLHandler("ny_trips");
-        break;
-      case BIN_SOURCE:
-        mng = new BinaryTripManager(Resource.getFor("trip_data_1.dat"));
-        break;
-      default:
-        throw new AssertionError("invalid source: " + TRIPS_SOURCE);
-    }
+    // the video mode needs the simulation in lock-step with the screenshots
+    final SimulationClock sim = VIDEO_MODE ? null : clock;
+    final Animator anim = VIDEO_MODE ? p : clock;
+    trails = new TrailRenderpass(p, sim, 500, 500);
+    final TripManager mng = openTripManager();
     frame = new JFrame("Trails") {
 
       @Override
       public void dispose() {
+        clock.close();
         c.dispose();
         try {
           mng.close();
@@ -153,11 +201,66 @@ public class Main {
     final RenderGroup<Renderpass> main = new LinearGroup<>(p, false, 5,
         AnimationTiming.NO_ANIMATION);
     main.addRenderpass(trails);
-    final BarChartRenderpass bc = new BarChartRenderpass(60, 450, 30);
-    final TimeSlicer slicer = new TripSlicer(mng, bc, INIT_TIME);
-    main.addRenderpass(new BorderRenderpass<>(bc));
-    System.out.println("time slicer initialized");
-    final ParticleProvider provider = new ParticleProvider(p, trails, slicer, 500);
+    final TimeSlicer slicer;
+    final ParticleProvider provider;
+    if(COMPARE_MODE) {
+      final long day = 24L * 60L * 60L * 1000L;
+      // the windows need slices that start on a monday
+      final long monday = nextMonday(mng.getStartTime() + INIT_TIME);
+      final SharedTripSlicer shared = new SharedTripSlicer(
+          mng, monday - mng.getStartTime());
+      shared.setSharedTimeSlice(7L * day);
+      final Window weekdays = shared.addWindow();
+      weekdays.setInterval(0L, 5L * day);
+      final Window weekend = shared.addWindow();
+      weekend.setInterval(5L * day, 7L * day);
+      final TrailRenderpass second = new TrailRenderpass(p, sim, 500, 500);
+      main.addRenderpass(second);
+      System.out.println("time slicer initialized");
+      slicer = weekdays;
+      provider = new ParticleProvider(anim, trails, weekdays, 500);
+      new ParticleProvider(anim, second, weekend, 500);
+    } else {
+      final BarChartRenderpass bc = new BarChartRenderpass(60, 450, 30);
+      final TripSlicer tripSlicer = new TripSlicer(mng, bc, INIT_TIME);
+      slicer = tripSlicer;
+      main.addRenderpass(new BorderRenderpass<>(bc));
+      final TimelineRenderpass timeline = new TimelineRenderpass(450, 30) {
+
+        @Override
+        protected void onSeek(final long time) {
+          try {
+            tripSlicer.seek(time);
+          } catch(final IOException e) {
+            e.printStackTrace();
+          }
+        }
+
+        @Override
+        protected long currentTime() {
+          return tripSlicer.getCurrentTime();
+        }
+
+      };
+      main.addRenderpass(new BorderRenderpass<>(timeline));
+      final Thread counter = new Thread(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            timeline.setPyramid(CountPyramid.build(mng));
+            System.out.println("timeline initialized");
+          } catch(final IOException e) {
+            e.printStackTrace();
+          }
+        }
+
+      }, "count-pyramid");
+      counter.setDaemon(true);
+      counter.start();
+      System.out.println("time slicer initialized");
+      provider = new ParticleProvider(anim, trails, slicer, 500);
+    }
     final Controller ctrl = initCtrl(provider, slicer);
     help = CanvasSetup.setupCanvas(frame, c, p, true, true, true, true);
     frame.setLayout(new BorderLayout());
@@ -168,6 +271,9 @@ public class Main {
     frame.setLocationRelativeTo(null);
     p.addPass(main);
     c.reset();
+    if(!VIDEO_MODE) {
+      clock.start();
+    }
   }
 
   /**
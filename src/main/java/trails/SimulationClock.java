@@ -0,0 +1,166 @@
+package trails;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jkanvas.animation.AnimationList;
+import jkanvas.animation.Animator;
+
+/**
+ * Advances the simulation with a fixed time step on its own thread. The
+ * simulation time follows the wall clock independent of how fast frames are
+ * drawn. When the thread falls behind it catches up with several steps at
+ * once. Renderers interpolate between the last two simulation states with
+ * {@link #getAlpha()}.
+ *
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class SimulationClock implements Animator, AutoCloseable {
+
+  /** The maximal number of steps to catch up at once. */
+  private static final int MAX_CATCH_UP = 8;
+
+  /** The animation list driven by the clock. */
+  private final AnimationList list = new AnimationList();
+  /** The simulation time that passes per step. */
+  private final long step;
+  /** The wall clock time of a step in nanoseconds. */
+  private final long period;
+  /** The simulation thread. */
+  private final Thread thread;
+  /** The current simulation time. */
+  private long time;
+  /** The wall clock time of the last step in nanoseconds. */
+  private volatile long lastTick;
+  /** The number of steps so far. */
+  private volatile long steps;
+  /** Whether the clock is paused. */
+  private volatile boolean stopped;
+  /** Whether the clock is closed. */
+  private volatile boolean closed;
+
+  /**
+   * Creates a clock. The clock has to be started with {@link #start()}.
+   *
+   * @param step The simulation time that passes per step.
+   * @param rate The number of steps per second.
+   */
+  public SimulationClock(final long step, final int rate) {
+    if(step <= 0L) throw new IllegalArgumentException("" + step);
+    if(rate <= 0) throw new IllegalArgumentException("" + rate);
+    this.step = step;
+    period = TimeUnit.SECONDS.toNanos(1L) / rate;
+    thread = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        simulate();
+      }
+
+    }, "simulation-clock");
+    thread.setDaemon(true);
+  }
+
+  /** Starts the simulation thread. */
+  public void start() {
+    lastTick = System.nanoTime();
+    thread.start();
+  }
+
+  @Override
+  public AnimationList getAnimationList() {
+    return list;
+  }
+
+  @Override
+  public void forceNextFrame() {
+    // the clock steps continuously
+  }
+
+  /** Runs the simulation loop. */
+  void simulate() {
+    long next = System.nanoTime() + period;
+    while(!closed) {
+      long now = System.nanoTime();
+      if(stopped) {
+        LockSupport.parkNanos(this, period);
+        next = System.nanoTime() + period;
+        lastTick = next - period;
+        continue;
+      }
+      int n = 0;
+      while(now >= next && n < MAX_CATCH_UP) {
+        list.doAnimate(time);
+        time += step;
+        next += period;
+        ++n;
+        lastTick = next - period;
+        steps = steps + 1L;
+        now = System.nanoTime();
+      }
+      if(now >= next) {
+        final long behind = (now - next) / period + 1L;
+        System.err.println(getClass().getName() + " dropped " + behind + " steps");
+        next += behind * period;
+        lastTick = next - period;
+      }
+      LockSupport.parkNanos(this, next - System.nanoTime());
+    }
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The fraction of the current step that has passed. This is the
+   *         interpolation weight of the latest simulation state against the
+   *         previous one.
+   */
+  public double getAlpha() {
+    if(stopped) return 1.0;
+    final double a = (double) (System.nanoTime() - lastTick) / period;
+    return a < 0.0 ? 0.0 : (a > 1.0 ? 1.0 : a);
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The number of steps so far.
+   */
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The simulation time that passes per step.
+   */
+  public long getStep() {
+    return step;
+  }
+
+  /**
+   * Setter.
+   *
+   * @param stopped Whether the clock is paused.
+   */
+  public void setStopped(final boolean stopped) {
+    this.stopped = stopped;
+  }
+
+  /**
+   * Getter.
+   *
+   * @return Whether the clock is paused.
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(thread);
+  }
+
+}
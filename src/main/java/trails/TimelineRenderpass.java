@@ -0,0 +1,250 @@
+package trails;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.RectangularShape;
+import java.awt.image.BufferedImage;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.swing.SwingUtilities;
+
+import jkanvas.KanvasContext;
+import jkanvas.painter.Renderpass;
+import trails.routes.CountPyramid;
+
+/**
+ * Renders a zoomable overview of the number of trips of the whole data set.
+ * The counts are read from a {@link CountPyramid} with at most one bucket per
+ * column. The rendered image is cached until the pyramid or the visible span
+ * changes. Left clicking seeks to the clicked time. Right clicking zooms in
+ * around the clicked time and right clicking with shift pressed zooms out.
+ * The current time is marked by a line.
+ *
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public class TimelineRenderpass extends Renderpass {
+
+  /** The smallest visible span. */
+  private static final long MIN_SPAN = 60L * 60L * 1000L;
+  /** The factor of a zoom step. */
+  private static final double ZOOM = 4.0;
+
+  /** The width of the timeline. */
+  private final int width;
+  /** The height of the timeline. */
+  private final int height;
+  /** The counts or <code>null</code> if they are not computed yet. */
+  private volatile CountPyramid pyramid;
+  /** The start of the visible span. */
+  private volatile long from;
+  /** The end of the visible span. */
+  private volatile long to;
+  /** The cached image or <code>null</code>. */
+  private BufferedImage cache;
+  /** The pyramid of the cached image. */
+  private CountPyramid cachePyramid;
+  /** The start of the span of the cached image. */
+  private long cacheFrom;
+  /** The end of the span of the cached image. */
+  private long cacheTo;
+
+  /**
+   * Creates a timeline without counts.
+   *
+   * @param width The width.
+   * @param height The height.
+   */
+  public TimelineRenderpass(final int width, final int height) {
+    if(width <= 0 || height <= 0) throw new IllegalArgumentException(
+        width + "x" + height);
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Setter.
+   *
+   * @param pyramid The counts. The whole data set becomes visible.
+   */
+  public void setPyramid(final CountPyramid pyramid) {
+    from = pyramid.getOrigin();
+    to = pyramid.getEnd();
+    this.pyramid = pyramid;
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The counts or <code>null</code> if they are not computed yet.
+   */
+  public CountPyramid getPyramid() {
+    return pyramid;
+  }
+
+  /**
+   * Sets the visible span. The span is restricted to the data set.
+   *
+   * @param from The start of the span.
+   * @param to The end of the span.
+   */
+  public void setView(final long from, final long to) {
+    final CountPyramid p = pyramid;
+    if(p == null) return;
+    final long min = p.getOrigin();
+    final long max = p.getEnd();
+    final long span = Math.min(Math.max(to - from, MIN_SPAN), max - min);
+    final long start = Math.min(Math.max(from, min), max - span);
+    this.from = start;
+    this.to = start + span;
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The start of the visible span.
+   */
+  public long getFrom() {
+    return from;
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The end of the visible span.
+   */
+  public long getTo() {
+    return to;
+  }
+
+  /**
+   * Computes the time at a horizontal position.
+   *
+   * @param x The position.
+   * @return The time.
+   */
+  public long getTime(final double x) {
+    final long f = from;
+    return f + (long) (x / width * (to - f));
+  }
+
+  /**
+   * Zooms around a time.
+   *
+   * @param time The time that stays at its position.
+   * @param factor The zoom factor. Values larger than one zoom in.
+   */
+  public void zoom(final long time, final double factor) {
+    final long f = from;
+    final long t = to;
+    final long left = (long) ((time - f) / factor);
+    final long right = (long) ((t - time) / factor);
+    setView(time - left, time + right);
+  }
+
+  /**
+   * Is called when the user clicks on a time.
+   *
+   * @param time The time.
+   */
+  protected void onSeek(final long time) {
+    // nothing to do
+  }
+
+  /**
+   * Getter.
+   *
+   * @return The time that is marked or {@link Long#MIN_VALUE} if no time
+   *         should be marked.
+   */
+  protected long currentTime() {
+    return Long.MIN_VALUE;
+  }
+
+  @Override
+  public boolean click(final Point2D p, final MouseEvent e) {
+    if(pyramid == null) return false;
+    if(SwingUtilities.isLeftMouseButton(e)) {
+      onSeek(getTime(p.getX()));
+      return true;
+    }
+    if(!SwingUtilities.isRightMouseButton(e)) return false;
+    zoom(getTime(p.getX()), e.isShiftDown() ? 1.0 / ZOOM : ZOOM);
+    return true;
+  }
+
+  @Override
+  public void draw(final Graphics2D g, final KanvasContext ctx) {
+    final CountPyramid p = pyramid;
+    if(p == null) return;
+    final long f = from;
+    final long t = to;
+    if(cache == null || cachePyramid != p || cacheFrom != f || cacheTo != t) {
+      cache = render(p, f, t);
+      cachePyramid = p;
+      cacheFrom = f;
+      cacheTo = t;
+    }
+    g.drawImage(cache, 0, 0, null);
+    final long cur = currentTime();
+    if(cur >= f && cur < t) {
+      final double x = (double) (cur - f) * width / (t - f);
+      g.setColor(Color.RED);
+      g.draw(new Line2D.Double(x, 0, x, height));
+    }
+  }
+
+  /**
+   * Renders the timeline.
+   *
+   * @param p The counts.
+   * @param f The start of the span.
+   * @param t The end of the span.
+   * @return The image.
+   */
+  private BufferedImage render(final CountPyramid p, final long f, final long t) {
+    final BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    final int[][] cols = p.columns(f, t, width);
+    int max = 0;
+    for(int x = 0; x < width; ++x) {
+      max = Math.max(max, cols[0][x] + cols[1][x]);
+    }
+    final Graphics2D g = img.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, width, height);
+    if(max > 0) {
+      final Color a = new Color(0xfc8d59);
+      final Color b = new Color(0x2b8cbe);
+      for(int x = 0; x < width; ++x) {
+        final int hA = (int) Math.round((double) cols[0][x] * height / max);
+        final int hB = (int) Math.round((double) cols[1][x] * height / max);
+        if(hA > 0) {
+          g.setColor(a);
+          g.drawLine(x, height - hA - hB, x, height - hB - 1);
+        }
+        if(hB > 0) {
+          g.setColor(b);
+          g.drawLine(x, height - hB, x, height - 1);
+        }
+      }
+    }
+    final SimpleDateFormat fmt = new SimpleDateFormat("YYYY-MM-dd HH:mm");
+    g.setColor(Color.BLACK);
+    final String start = fmt.format(new Date(f));
+    final String end = fmt.format(new Date(t));
+    g.drawString(start, 2, g.getFontMetrics().getAscent());
+    g.drawString(end, width - g.getFontMetrics().stringWidth(end) - 2,
+        g.getFontMetrics().getAscent());
+    g.dispose();
+    return img;
+  }
+
+  @Override
+  public void getBoundingBox(final RectangularShape bbox) {
+    bbox.setFrame(0, 0, width, height);
+  }
+
+}
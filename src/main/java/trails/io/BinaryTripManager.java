@@ -1,7 +1,10 @@
 package trails.io;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -11,14 +14,13 @@ import java.util.List;
 import jkanvas.util.Resource;
 
 /**
- * Manages the trips file.
+ * Manages the trips file. The trips are sorted by their start time with all
+ * invalid trips at the end.
  * 
  * @author Joschi <josua.krause@gmail.com>
  */
-public class BinaryTripManager implements TripManager {
+public class BinaryTripManager implements IndexedTripManager {
 
-  /** Enforces sorting of the file. */
-  private static final boolean ENFORCE_SORT = false;
   /** Enforces to scan all records when searching. */
   protected static final boolean SCAN_ALL = false;
   /** How many trips a block has. */
@@ -65,16 +67,19 @@ public class BinaryTripManager implements TripManager {
     }
 
     /**
-     * Ensures that the buffer exists.
+     * Ensures that the buffer exists and creates a view with its own position.
+     * This allows multiple threads to read the block at the same time.
      * 
+     * @return The view of the buffer.
      * @throws IOException I/O exception.
      */
-    private void ensureBuffer() throws IOException {
+    private synchronized ByteBuffer view() throws IOException {
       ensureOpen();
       if(buffer == null) {
         buffer = fc.map(FileChannel.MapMode.READ_ONLY,
             offset * Trip.byteSize(), trips * Trip.byteSize());
       }
+      return buffer.duplicate();
     }
 
     /**
@@ -94,11 +99,11 @@ public class BinaryTripManager implements TripManager {
      */
     public long getStartTime() throws IOException {
       if(startTime < 0) {
-        ensureBuffer();
+        final ByteBuffer buf = view();
         final Trip trip = new Trip();
-        Trip.seek(buffer, offset, offset);
+        Trip.seek(buf, offset, offset);
         for(int i = 0; i < trips; ++i) {
-          trip.read(buffer, offset + i);
+          trip.read(buf, offset + i);
           if(trip.isValid()) {
             break;
           }
@@ -120,11 +125,11 @@ public class BinaryTripManager implements TripManager {
      */
     public long getEndTime() throws IOException {
       if(endTime < 0) {
-        ensureBuffer();
+        final ByteBuffer buf = view();
         final Trip trip = new Trip();
         for(long i = trips - 1; i >= 0; --i) {
-          Trip.seek(buffer, offset + i, offset);
-          trip.read(buffer, offset + i);
+          Trip.seek(buf, offset + i, offset);
+          trip.read(buf, offset + i);
           if(trip.isValid()) {
             break;
           }
@@ -150,16 +155,16 @@ public class BinaryTripManager implements TripManager {
     public void read(final List<Trip> list, final long startIndex,
         final long fromTime, final long toTime)
         throws IOException {
-      ensureBuffer();
+      final ByteBuffer buf = view();
       if(contains(startIndex)) {
-        Trip.seek(buffer, startIndex, offset);
+        Trip.seek(buf, startIndex, offset);
       } else {
-        Trip.seek(buffer, offset, offset);
+        Trip.seek(buf, offset, offset);
       }
       if(SCAN_ALL) {
         for(int i = 0; i < trips; ++i) {
           final Trip trip = new Trip();
-          trip.read(buffer, i + offset);
+          trip.read(buf, i + offset);
           if(!trip.isValid()) {
             System.err.println("invalid entry");
             continue;
@@ -173,7 +178,7 @@ public class BinaryTripManager implements TripManager {
       }
       Trip cur = new Trip();
       for(int i = 0; i < trips; ++i) {
-        cur.read(buffer, i + offset);
+        cur.read(buf, i + offset);
         if(!cur.isValid()) {
           System.err.println("invalid entry");
           continue;
@@ -187,6 +192,57 @@ public class BinaryTripManager implements TripManager {
       }
     }
 
+    /**
+     * Counts all entries of the block into the slots of a histogram.
+     * 
+     * @param counts The histogram indexed by vehicle and slot.
+     * @param start The start of the first slot.
+     * @param step The length of a slot.
+     * @param windowFrom The start of the window within a slot inclusive.
+     * @param windowTo The end of the window within a slot exclusive.
+     * @param toTime The exclusive highest time that will be counted.
+     * @return Whether the highest time has been reached.
+     * @throws IOException I/O Exception.
+     */
+    public boolean count(final int[][] counts, final long start, final long step,
+        final long windowFrom, final long windowTo, final long toTime)
+        throws IOException {
+      final ByteBuffer buf = view();
+      Trip.seek(buf, offset, offset);
+      final Trip cur = new Trip();
+      final int slots = counts[0].length;
+      for(int i = 0; i < trips; ++i) {
+        cur.read(buf, i + offset);
+        if(!cur.isValid()) {
+          continue;
+        }
+        final long time = cur.getPickupTime();
+        if(time >= toTime) {
+          if(SCAN_ALL) {
+            continue;
+          }
+          return true;
+        }
+        final long off = time - start;
+        if(off < windowFrom) {
+          continue;
+        }
+        final long inSlot = off % step;
+        if(inSlot < windowFrom || inSlot >= windowTo) {
+          continue;
+        }
+        final long slot = off / step;
+        if(slot >= slots) {
+          continue;
+        }
+        // the binary format has no vehicles
+        for(final int[] c : counts) {
+          ++c[(int) slot];
+        }
+      }
+      return false;
+    }
+
     /**
      * Reads the trip at the given index.
      * 
@@ -195,9 +251,61 @@ public class BinaryTripManager implements TripManager {
      * @throws IOException I/O Exception.
      */
     public void read(final Trip trip, final long index) throws IOException {
-      ensureBuffer();
-      Trip.seek(buffer, index, offset);
-      trip.read(buffer, index);
+      final ByteBuffer buf = view();
+      Trip.seek(buf, index, offset);
+      trip.read(buf, index);
+    }
+
+    /**
+     * Finds the position of a time within the block. Invalid trips are sorted
+     * after all valid trips.
+     * 
+     * @param time The time.
+     * @return The index of the first trip with a start time at or after the
+     *         given time, the index of the first invalid trip, or the index
+     *         after the block if there is none.
+     * @throws IOException I/O Exception.
+     */
+    public long indexOf(final long time) throws IOException {
+      final ByteBuffer buf = view();
+      final Trip trip = new Trip();
+      long lo = offset;
+      long hi = offset + trips;
+      while(lo < hi) {
+        final long mid = (lo + hi) >>> 1;
+        Trip.seek(buf, mid, offset);
+        trip.read(buf, mid);
+        if(trip.isValid() && trip.getPickupTime() < time) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    /**
+     * Reads all valid entries of the block within a range of indices.
+     * 
+     * @param list The list to fill.
+     * @param firstIndex The first index inclusive.
+     * @param lastIndex The last index exclusive.
+     * @throws IOException I/O Exception.
+     */
+    public void readRange(final List<Trip> list,
+        final long firstIndex, final long lastIndex) throws IOException {
+      final long from = Math.max(firstIndex, offset);
+      final long to = Math.min(lastIndex, offset + trips);
+      if(from >= to) return;
+      final ByteBuffer buf = view();
+      Trip.seek(buf, from, offset);
+      for(long i = from; i < to; ++i) {
+        final Trip trip = new Trip();
+        trip.read(buf, i);
+        if(trip.isValid()) {
+          list.add(trip);
+        }
+      }
     }
 
   } // TripBlock
@@ -214,10 +322,10 @@ public class BinaryTripManager implements TripManager {
   /**
    * Creates a new trip manager.
    * 
-   * @param r The resource.
+   * @param r The resource. The trips must be sorted.
    * @throws IOException I/O Exception.
    */
-  public BinaryTripManager(final Resource r) throws IOException {
+  private BinaryTripManager(final Resource r) throws IOException {
     raf = new RandomAccessFile(r.directFile(), "r");
     fc = raf.getChannel();
     size = fc.size() / Trip.byteSize();
@@ -252,9 +360,30 @@ public class BinaryTripManager implements TripManager {
       }
       return list;
     }
+    final int blockIndex = firstBlock(startIndex, fromTime);
+    if(blockIndex >= blocks.size()) return Collections.emptyList();
+    final List<Trip> list = new ArrayList<>();
+    for(int b = blockIndex; b < blocks.size(); ++b) {
+      final TripBlock block = blocks.get(b);
+      if(block.getStartTime() > toTime) {
+        break;
+      }
+      block.read(list, startIndex, fromTime, toTime);
+    }
+    return list;
+  }
+
+  /**
+   * Finds the first block that may contain the given time.
+   * 
+   * @param startIndex A hint for the starting index.
+   * @param fromTime The lowest inclusive time.
+   * @return The index of the block or the number of blocks if there is none.
+   * @throws IOException I/O Exception.
+   */
+  private int firstBlock(final long startIndex, final long fromTime) throws IOException {
     int blockIndex = 0;
-    for(;;) {
-      if(blockIndex >= blocks.size()) return Collections.emptyList();
+    while(blockIndex < blocks.size()) {
       final TripBlock block = blocks.get(blockIndex);
       if(block.contains(startIndex)) {
         break;
@@ -269,14 +398,79 @@ public class BinaryTripManager implements TripManager {
       }
       ++blockIndex;
     }
+    return blockIndex;
+  }
+
+  @Override
+  public int[][] countHistogram(final long start, final long step,
+      final long windowFrom, final long windowTo, final int slots) throws IOException {
+    final int[][] counts = new int[2][slots];
+    if(slots <= 0) return counts;
+    final long fromTime = start + windowFrom;
+    final long toTime = start + (slots - 1) * step + windowTo;
+    final int first = SCAN_ALL ? 0 : firstBlock(-1L, fromTime);
+    for(int b = first; b < blocks.size(); ++b) {
+      final TripBlock block = blocks.get(b);
+      if(!SCAN_ALL && block.getStartTime() > toTime) {
+        break;
+      }
+      if(block.count(counts, start, step, windowFrom, windowTo, toTime)) {
+        break;
+      }
+    }
+    return counts;
+  }
+
+  @Override
+  public long nextTripTimeAtOrAfter(final long time, final long windowFrom,
+      final long windowTo, final long sliceLength) throws IOException {
+    final Trip trip = new Trip();
+    long slice = time;
+    for(;;) {
+      // every step jumps over all empty slices up to the next trip
+      final long index = indexOf(slice + windowFrom);
+      if(index >= size) return -1L;
+      read(trip, index);
+      if(!trip.isValid()) return -1L;
+      final long off = trip.getPickupTime() - time;
+      final long inSlice = off % sliceLength;
+      slice = time + off / sliceLength * sliceLength;
+      if(inSlice >= windowFrom && inSlice < windowTo) return slice;
+      if(inSlice >= windowTo) {
+        slice += sliceLength;
+      }
+    }
+  }
+
+  @Override
+  public long indexOf(final long time) throws IOException {
+    int lo = 0;
+    int hi = blocks.size();
+    while(lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      final long endTime = blocks.get(mid).getEndTime();
+      // blocks without valid trips are at the end
+      if(endTime >= 0 && endTime < time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    if(lo >= blocks.size()) return size;
+    return blocks.get(lo).indexOf(time);
+  }
+
+  @Override
+  public List<Trip> readRange(final long firstIndex, final long lastIndex)
+      throws IOException {
     final List<Trip> list = new ArrayList<>();
-    while(blockIndex < blocks.size()) {
-      final TripBlock block = blocks.get(blockIndex);
-      if(block.getStartTime() > toTime) {
+    // all blocks but the last are full
+    for(int b = (int) Math.max(firstIndex / blockTrips, 0L); b < blocks.size(); ++b) {
+      final TripBlock block = blocks.get(b);
+      if(block.offset >= lastIndex) {
         break;
       }
-      block.read(list, startIndex, fromTime, toTime);
-      ++blockIndex;
+      block.readRange(list, firstIndex, lastIndex);
     }
     return list;
   }
@@ -339,13 +533,107 @@ public class BinaryTripManager implements TripManager {
     }
   }
 
+  /**
+   * Checks whether the trips are sorted by reading the memory maps of the
+   * blocks.
+   * 
+   * @return Whether the trips are sorted with all invalid trips at the end.
+   * @throws IOException I/O Exception.
+   */
+  private boolean checkSorted() throws IOException {
+    final Trip trip = new Trip();
+    long time = -1L;
+    boolean invalid = false;
+    for(final TripBlock block : blocks) {
+      final ByteBuffer buf = block.view();
+      Trip.seek(buf, block.offset, block.offset);
+      for(long i = 0; i < block.trips; ++i) {
+        trip.read(buf, block.offset + i);
+        if(!trip.isValid()) {
+          invalid = true;
+          continue;
+        }
+        if(invalid) return false; // invalids at the end
+        final long t = trip.getPickupTime();
+        if(t < time) return false;
+        time = t;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param bin The binary file.
+   * @return The file marking the binary file as sorted.
+   */
+  private static File sortedMarker(final File bin) {
+    return new File(bin.getPath() + ".sorted");
+  }
+
+  /**
+   * Checks whether the binary file is marked as sorted. The marker is only
+   * valid if it is not older than the binary file.
+   * 
+   * @param bin The binary file.
+   * @return Whether the file is known to be sorted.
+   */
+  private static boolean isMarkedSorted(final File bin) {
+    final File marker = sortedMarker(bin);
+    return marker.exists() && marker.lastModified() >= bin.lastModified();
+  }
+
+  /**
+   * Marks the binary file as sorted.
+   * 
+   * @param bin The binary file.
+   * @throws IOException I/O Exception.
+   */
+  private static void markSorted(final File bin) throws IOException {
+    try (FileOutputStream out = new FileOutputStream(sortedMarker(bin))) {
+      out.flush();
+    }
+  }
+
+  /**
+   * Opens a sorted binary trip file. Files without a sorted marker are checked
+   * once by reading their memory maps. Sorting only happens when creating the
+   * file via {@link #getManager(Resource, Resource, CSVFormat)}.
+   * 
+   * @param bin The binary file.
+   * @return The trip manager.
+   * @throws IOException I/O Exception. Also when the file is not sorted.
+   */
+  public static BinaryTripManager open(final Resource bin) throws IOException {
+    final File f = bin.directFile();
+    final BinaryTripManager mng = new BinaryTripManager(bin);
+    if(isMarkedSorted(f)) return mng;
+    final boolean sorted;
+    try {
+      sorted = mng.checkSorted();
+    } catch(final IOException e) {
+      mng.close();
+      throw e;
+    }
+    if(!sorted) {
+      mng.close();
+      throw new IOException("trips are not sorted: " + f);
+    }
+    markSorted(f);
+    return mng;
+  }
+
   /**
    * Constructs a trip manager. The binary file gets created, filled, and sorted
-   * if not already done. This may take a while.
+   * if not already done. This may take a while. A sorted file is marked so
+   * that opening it later does not need to check the order.
    * 
    * @param bin The binary file.
-   * @param origin The CSV file.
-   * @param fmt The CSV format.
+   * @param origin The CSV file. All entries of a zip file are loaded in
+   *          parallel.
+   * @param fmt The CSV format. The format must not keep state between rows
+   *          when loading a zip file.
    * @return The trip manager.
    * @throws IOException I/O Exception.
    */
@@ -353,17 +641,23 @@ public class BinaryTripManager implements TripManager {
       final Resource origin, final CSVFormat fmt)
       throws IOException {
     if(!bin.hasContent()) {
-      final CSVTripLoader loader = new CSVTripLoader(origin);
-      CSVTripLoader.loadTrips(
-          loader.openFile("trip_data_1.csv"),
-          new BinaryTripAcceptor(bin.directFile()), fmt, 0L);
+      try (CSVTripLoader loader = new CSVTripLoader(origin)) {
+        final BinaryTripAcceptor acceptor = new BinaryTripAcceptor(bin.directFile());
+        if(origin.isZip()) {
+          loader.loadTrips(loader.getEntries(), acceptor, fmt, 0L);
+        } else {
+          CSVTripLoader.loadTrips(loader.openFile("trip_data_1.csv"), acceptor, fmt, 0L);
+        }
+      }
     }
-    if(ENFORCE_SORT) {
-      try (TripSorter sorter = new TripSorter(bin.directFile())) {
+    final File f = bin.directFile();
+    if(!isMarkedSorted(f)) {
+      try (TripSorter sorter = new TripSorter(f)) {
         sorter.sort();
       } catch(final Exception e) {
         throw new IOException(e);
       }
+      markSorted(f);
     }
     return new BinaryTripManager(bin);
   }
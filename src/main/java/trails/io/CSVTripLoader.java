@@ -1,12 +1,28 @@
 package trails.io;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import jkanvas.io.csv.CSVReader;
@@ -18,7 +34,7 @@ import jkanvas.util.Resource;
  * 
  * @author Joschi <josua.krause@gmail.com>
  */
-public class CSVTripLoader {
+public class CSVTripLoader implements AutoCloseable {
 
   /** The resource. */
   private final Resource r;
@@ -62,8 +78,178 @@ public class CSVTripLoader {
     }
   }
 
+  /** The number of trips in a chunk that is handed to the acceptor. */
+  private static final int CHUNK_SIZE = 4096;
+  /** The number of chunks an entry may parse ahead. */
+  private static final int CHUNKS_AHEAD = 64;
+  /** Marks the end of an entry. */
+  private static final List<Trip> END = Collections.emptyList();
+
+  /**
+   * Loads the trips of multiple files. The files are decompressed and parsed
+   * in parallel but the trips are handed to the acceptor in the order of the
+   * given names. Row numbers are continuous over all files.
+   * 
+   * @param <T> The trip acceptor type.
+   * @param names The files to load.
+   * @param ta The acceptor.
+   * @param fmt The CSV format. The format must not keep state between rows
+   *          since it is used by multiple threads at once.
+   * @param off The offset for row numbering.
+   * @return The row number after the last trip.
+   * @throws IOException I/O Exception.
+   */
+  public <T extends AutoCloseable> long loadTrips(final List<String> names,
+      final TripAcceptor<T> ta, final CSVFormat fmt, final long off) throws IOException {
+    final int threads = Math.max(1,
+        Math.min(names.size(), Runtime.getRuntime().availableProcessors()));
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    final List<BlockingQueue<List<Trip>>> queues = new ArrayList<>(names.size());
+    final List<Future<Long>> parsers = new ArrayList<>(names.size());
+    try {
+      for(final String name : names) {
+        final BlockingQueue<List<Trip>> queue = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+        queues.add(queue);
+        parsers.add(pool.submit(new Callable<Long>() {
+
+          @Override
+          public Long call() throws Exception {
+            boolean done = false;
+            try {
+              final long trips = parse(openFile(name), fmt, queue);
+              done = true;
+              return trips;
+            } finally {
+              if(done) {
+                queue.put(END);
+              } else {
+                // the consumer may have stopped already so never block here
+                queue.clear();
+                queue.offer(END);
+              }
+            }
+          }
+
+        }));
+      }
+      long rowNo = off;
+      try (T out = ta.beginSection()) {
+        for(int i = 0; i < names.size(); ++i) {
+          final BlockingQueue<List<Trip>> queue = queues.get(i);
+          List<Trip> chunk;
+          while((chunk = queue.take()) != END) {
+            for(final Trip t : chunk) {
+              t.setIndex(rowNo);
+              ta.accept(out, t, rowNo);
+              ++rowNo;
+            }
+          }
+          System.out.println(parsers.get(i).get() + " trips in " + names.get(i));
+        }
+      }
+      System.out.println((rowNo - off) + " trips");
+      return rowNo;
+    } catch(final ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch(final IOException e) {
+      throw e;
+    } catch(final Exception e) {
+      throw new IOException(e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Parses trips into chunks.
+   * 
+   * @param it The row iterator.
+   * @param fmt The CSV format.
+   * @param queue The queue receiving the chunks.
+   * @return The number of parsed trips.
+   * @throws InterruptedException If the parsing got interrupted.
+   */
+  private static long parse(final Iterator<CSVRow> it, final CSVFormat fmt,
+      final BlockingQueue<List<Trip>> queue) throws InterruptedException {
+    long rowNo = 0;
+    List<Trip> chunk = new ArrayList<>(CHUNK_SIZE);
+    while(it.hasNext()) {
+      final Trip t = new Trip();
+      if(!fmt.readTrip(t, it.next(), rowNo)) {
+        continue;
+      }
+      chunk.add(t);
+      ++rowNo;
+      if(chunk.size() >= CHUNK_SIZE) {
+        queue.put(chunk);
+        chunk = new ArrayList<>(CHUNK_SIZE);
+      }
+    }
+    if(!chunk.isEmpty()) {
+      queue.put(chunk);
+    }
+    return rowNo;
+  }
+
+  /** The opened zip file or <code>null</code> if not opened yet. */
+  private ZipFile zip;
+
   /**
-   * Opens the file within the resource.
+   * Getter.
+   * 
+   * @return The zip file allowing direct access to its entries or
+   *         <code>null</code> if the resource is not a local file.
+   * @throws IOException I/O Exception.
+   */
+  private synchronized ZipFile getZip() throws IOException {
+    if(zip == null) {
+      final URL url = r.getURL();
+      if(!"file".equals(url.getProtocol())) return null;
+      try {
+        zip = new ZipFile(new File(url.toURI()));
+      } catch(final URISyntaxException e) {
+        throw new IOException(e);
+      }
+    }
+    return zip;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The names of all entries of the zip file in the order of the
+   *         central directory.
+   * @throws IOException I/O Exception.
+   */
+  public List<String> getEntries() throws IOException {
+    if(!r.isZip()) throw new IllegalStateException("no zip file: " + r);
+    final List<String> names = new ArrayList<>();
+    final ZipFile z = getZip();
+    if(z != null) {
+      final Enumeration<? extends ZipEntry> entries = z.entries();
+      while(entries.hasMoreElements()) {
+        final ZipEntry e = entries.nextElement();
+        if(!e.isDirectory()) {
+          names.add(e.getName());
+        }
+      }
+      return names;
+    }
+    try (ZipInputStream in = new ZipInputStream(r.getURL().openStream())) {
+      ZipEntry cur;
+      while((cur = in.getNextEntry()) != null) {
+        if(!cur.isDirectory()) {
+          names.add(cur.getName());
+        }
+        in.closeEntry();
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Opens the file within the resource. Entries of local zip files are looked
+   * up directly via the central directory.
    * 
    * @param name The file to open.
    * @return The CSV row iterator.
@@ -71,27 +257,48 @@ public class CSVTripLoader {
    */
   public Iterator<CSVRow> openFile(final String name) throws IOException {
     if(r.isZip()) {
-      final ZipInputStream zip = new ZipInputStream(r.getURL().openStream());
-      boolean found = false;
-      ZipEntry cur;
-      while((cur = zip.getNextEntry()) != null) {
-        if(name.equals(cur.getName())) {
-          found = true;
-          break;
-        }
-        zip.closeEntry();
-      }
-      if(!found) {
-        zip.close();
-        throw new FileNotFoundException(name + " in " + r);
+      final ZipFile z = getZip();
+      final InputStream in;
+      if(z != null) {
+        final ZipEntry entry = z.getEntry(name);
+        if(entry == null) throw new FileNotFoundException(name + " in " + r);
+        in = z.getInputStream(entry);
+      } else {
+        in = openStream(name);
       }
       return CSVReader.readRows(
           new BufferedReader( // always buffer zip inputs :)
-              new InputStreamReader(zip, r.getCharset())), reader);
+              new InputStreamReader(in, r.getCharset())), reader);
     }
     return CSVReader.readRows(r.getFile(name).reader(), reader);
   }
 
+  /**
+   * Opens an entry of a remote zip file by scanning the stream.
+   * 
+   * @param name The entry to open.
+   * @return The stream positioned at the entry.
+   * @throws IOException I/O Exception.
+   */
+  private InputStream openStream(final String name) throws IOException {
+    final ZipInputStream zip = new ZipInputStream(r.getURL().openStream());
+    ZipEntry cur;
+    while((cur = zip.getNextEntry()) != null) {
+      if(name.equals(cur.getName())) return zip;
+      zip.closeEntry();
+    }
+    zip.close();
+    throw new FileNotFoundException(name + " in " + r);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if(zip != null) {
+      zip.close();
+      zip = null;
+    }
+  }
+
   /**
    * Tests the CSV loader.
    * 
@@ -100,32 +307,32 @@ public class CSVTripLoader {
    */
   public static void main(final String[] args) throws IOException {
     System.out.println("start converting");
-    final CSVTripLoader l = new CSVTripLoader(Resource.getFor("trip_data_1.csv.zip"));
     final Resource dump = new Resource(
         (String) null, "trip_data_1.dat", (String) null, (String) null);
-    CSVTripLoader.loadTrips(
-        l.openFile("trip_data_1.csv"),
-        new BinaryTripAcceptor(dump.directFile()), new CSVFormat() {
+    try (CSVTripLoader l = new CSVTripLoader(Resource.getFor("trip_data_1.csv.zip"))) {
+      l.loadTrips(l.getEntries(),
+          new BinaryTripAcceptor(dump.directFile()), new CSVFormat() {
 
-          @Override
-          public boolean readTrip(final Trip t, final CSVRow row, final long rowNo) {
-            try {
-              t.set(rowNo,
-                  row.get("pickup_latitude"),
-                  row.get("pickup_longitude"),
-                  row.get("pickup_datetime"),
-                  row.get("dropoff_latitude"),
-                  row.get("dropoff_longitude"),
-                  row.get("dropoff_datetime"));
-            } catch(final IllegalArgumentException e) {
-              System.err.println("invalid row detected");
-              e.printStackTrace();
-              t.setInvalid(rowNo);
+            @Override
+            public boolean readTrip(final Trip t, final CSVRow row, final long rowNo) {
+              try {
+                t.set(rowNo,
+                    row.get("pickup_latitude"),
+                    row.get("pickup_longitude"),
+                    row.get("pickup_datetime"),
+                    row.get("dropoff_latitude"),
+                    row.get("dropoff_longitude"),
+                    row.get("dropoff_datetime"));
+              } catch(final IllegalArgumentException e) {
+                System.err.println("invalid row detected");
+                e.printStackTrace();
+                t.setInvalid(rowNo);
+              }
+              return true;
             }
-            return true;
-          }
 
-        }, 0L);
+          }, 0L);
+    }
     System.out.println("finished!");
   }
 
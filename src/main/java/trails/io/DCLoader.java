@@ -12,6 +12,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import jkanvas.io.csv.CSVReader;
 import jkanvas.io.csv.CSVRow;
@@ -68,95 +69,113 @@ public class DCLoader {
   }
 
   /**
-   * Fills the data base.
+   * Fills the data base. The files are read in parallel.
    * 
    * @param stations The station map.
    * @throws Exception General Exception.
    */
   private static void fillDatabase(final Map<String, Point2D> stations) throws Exception {
-    final SimpleDateFormat fmt = new SimpleDateFormat("MM/dd/yyyy HH:mm");
     final File folder = new File("src/main/resources/washington-dc/");
-    final CSVReader reader = new CSVReader(',', '"', true, false, true);
     try (SQLHandler sql = new SQLHandler("dc_trips")) {
       sql.truncateTable();
-      long num = 0;
-      for(final File f : folder.listFiles(FILTER)) {
-        System.out.println("reading " + f);
-        final Trip t = new Trip();
-        int count = 0;
-        try (InsertStatement is = sql.beginSection()) {
-          for(final CSVRow row : CSVReader.readRows(Resource.getFor(f), reader)) {
-            String sStation = row.get("Start Station");
-            if(sStation == null) {
-              sStation = row.get("Start station");
-            }
-            Objects.requireNonNull(sStation);
-            final String sSt = sStation;
-            if(sStation.contains("(")) {
-              sStation = sStation.substring(0, sStation.indexOf("(")).trim();
-            }
-            String eStation = row.get("End Station");
-            if(eStation == null) {
-              eStation = row.get("End station");
-            }
-            Objects.requireNonNull(eStation);
-            final String eSt = eStation;
-            if(eStation.contains("(")) {
-              eStation = eStation.substring(0, eStation.indexOf("(")).trim();
-            }
-            final Point2D from = stations.get(sStation);
-            final Point2D to = stations.get(eStation);
-            if(from == null || to == null) {
-              if(from == null && !sSt.isEmpty()) {
-                System.err.println("sStation not found: " + sStation + " " + sSt);
-              }
-              if(to == null && !eSt.isEmpty()) {
-                System.err.println("eStation not found: " + eStation + " " + eSt);
-              }
-              continue;
-            }
-            try {
-              String st = row.get("Start time");
-              if(st == null) {
-                st = row.get("Start date");
-              }
-              Objects.requireNonNull(st);
-              final Date time = fmt.parse(st);
-              // System.out.println(
-              // new SimpleDateFormat("yyyy-MM-dd HH:mm").format(time) + " " +
-              // st);
-              final long start = time.getTime();
-              final String[] duration = row.get("Duration").split(" ");
-              final int hour = getFrontInt(duration[0]);
-              final int min = getFrontInt(duration[1]);
-              final int sec = getFrontInt(duration[2]);
-              final long end = start + ((hour * 60L + min) * 60L + sec) * 1000L;
-              t.set(num++, from.getY(), from.getX(), start, to.getY(), to.getX(), end);
-              final String v = row.get("Subscription Type");
-              switch(v) {
-                case "Subscriber":
-                  t.setVehicle(1);
-                  break;
-                case "Casual":
-                  t.setVehicle(0);
-                  break;
-                default:
-                  System.err.println("unknown vehicle: " + Objects.toString(v));
-                  throw new Exception();
-              }
-              is.insert(t);
-              ++count;
-            } catch(final Exception e) {
-              // continue...
-              System.err.println(row.toString());
-            }
+    }
+    final long total = ParallelInserter.insertAll("dc_trips", folder.listFiles(FILTER),
+        new FileInserter() {
+
+          @Override
+          public int insert(final File f, final InsertStatement is, final AtomicLong num)
+              throws Exception {
+            return insertFile(f, is, num, stations);
           }
 
+        });
+    System.out.println("number of trips: " + total);
+  }
+
+  /**
+   * Inserts all trips of a file.
+   * 
+   * @param f The file.
+   * @param is The insert statement.
+   * @param num The global trip number.
+   * @param stations The station map.
+   * @return The number of inserted trips.
+   * @throws IOException I/O Exception.
+   */
+  static int insertFile(final File f, final InsertStatement is,
+      final AtomicLong num, final Map<String, Point2D> stations) throws IOException {
+    final SimpleDateFormat fmt = new SimpleDateFormat("MM/dd/yyyy HH:mm");
+    final CSVReader reader = new CSVReader(',', '"', true, false, true);
+    final Trip t = new Trip();
+    int count = 0;
+    for(final CSVRow row : CSVReader.readRows(Resource.getFor(f), reader)) {
+      String sStation = row.get("Start Station");
+      if(sStation == null) {
+        sStation = row.get("Start station");
+      }
+      Objects.requireNonNull(sStation);
+      final String sSt = sStation;
+      if(sStation.contains("(")) {
+        sStation = sStation.substring(0, sStation.indexOf("(")).trim();
+      }
+      String eStation = row.get("End Station");
+      if(eStation == null) {
+        eStation = row.get("End station");
+      }
+      Objects.requireNonNull(eStation);
+      final String eSt = eStation;
+      if(eStation.contains("(")) {
+        eStation = eStation.substring(0, eStation.indexOf("(")).trim();
+      }
+      final Point2D from = stations.get(sStation);
+      final Point2D to = stations.get(eStation);
+      if(from == null || to == null) {
+        if(from == null && !sSt.isEmpty()) {
+          System.err.println("sStation not found: " + sStation + " " + sSt);
+        }
+        if(to == null && !eSt.isEmpty()) {
+          System.err.println("eStation not found: " + eStation + " " + eSt);
         }
-        System.out.println("#trips: " + count);
+        continue;
+      }
+      try {
+        String st = row.get("Start time");
+        if(st == null) {
+          st = row.get("Start date");
+        }
+        Objects.requireNonNull(st);
+        final Date time = fmt.parse(st);
+        // System.out.println(
+        // new SimpleDateFormat("yyyy-MM-dd HH:mm").format(time) + " " +
+        // st);
+        final long start = time.getTime();
+        final String[] duration = row.get("Duration").split(" ");
+        final int hour = getFrontInt(duration[0]);
+        final int min = getFrontInt(duration[1]);
+        final int sec = getFrontInt(duration[2]);
+        final long end = start + ((hour * 60L + min) * 60L + sec) * 1000L;
+        t.set(num.getAndIncrement(), from.getY(), from.getX(), start,
+            to.getY(), to.getX(), end);
+        final String v = row.get("Subscription Type");
+        switch(v) {
+          case "Subscriber":
+            t.setVehicle(1);
+            break;
+          case "Casual":
+            t.setVehicle(0);
+            break;
+          default:
+            System.err.println("unknown vehicle: " + Objects.toString(v));
+            throw new Exception();
+        }
+        is.insert(t);
+        ++count;
+      } catch(final Exception e) {
+        // continue...
+        System.err.println(row.toString());
       }
-      System.out.println("number of trips: " + num);
     }
+    return count;
   }
 
   /**
@@ -0,0 +1,27 @@
+package trails.io;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import trails.io.SQLHandler.InsertStatement;
+
+/**
+ * Inserts the trips of a single file into the database.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public interface FileInserter {
+
+  /**
+   * Inserts all trips of the given file. This method may be called from
+   * different threads at the same time.
+   * 
+   * @param f The file.
+   * @param is The insert statement exclusively used for this file.
+   * @param num The global trip number shared by all files.
+   * @return The number of inserted trips.
+   * @throws Exception Exception.
+   */
+  int insert(File f, InsertStatement is, AtomicLong num) throws Exception;
+
+}
@@ -0,0 +1,35 @@
+package trails.io;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A trip manager whose trips are stored sorted by their start time and can be
+ * accessed by their position. Invalid trips are stored after all valid trips.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public interface IndexedTripManager extends TripManager {
+
+  /**
+   * Finds the position of a time.
+   * 
+   * @param time The time.
+   * @return The index of the first valid trip with a start time at or after
+   *         the given time or the index of the first invalid trip if there is
+   *         none. Without invalid trips this is the total number of trips.
+   * @throws IOException I/O Exception.
+   */
+  long indexOf(long time) throws IOException;
+
+  /**
+   * Reads all trips of a range of indices.
+   * 
+   * @param firstIndex The first index inclusive.
+   * @param lastIndex The last index exclusive.
+   * @return The list containing the trips.
+   * @throws IOException I/O Exception.
+   */
+  List<Trip> readRange(long firstIndex, long lastIndex) throws IOException;
+
+}
@@ -0,0 +1,84 @@
+package trails.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import trails.io.SQLHandler.InsertStatement;
+
+/**
+ * Inserts multiple files in parallel. Every file is processed by its own worker
+ * with its own database connection.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class ParallelInserter {
+
+  /** No constructor. */
+  private ParallelInserter() {
+    throw new AssertionError();
+  }
+
+  /**
+   * Inserts all files. The table must already exist.
+   * 
+   * @param db The database name.
+   * @param files The files.
+   * @param ins The inserter for a single file.
+   * @return The total number of trips.
+   * @throws Exception Exception.
+   */
+  public static long insertAll(final String db, final File[] files,
+      final FileInserter ins) throws Exception {
+    Objects.requireNonNull(db);
+    Objects.requireNonNull(ins);
+    final int threads = Math.max(1,
+        Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    final AtomicLong num = new AtomicLong();
+    final AtomicInteger done = new AtomicInteger();
+    final List<Future<Integer>> res = new ArrayList<>(files.length);
+    try {
+      for(final File f : files) {
+        res.add(pool.submit(new Callable<Integer>() {
+
+          @Override
+          public Integer call() throws Exception {
+            System.out.println("reading " + f);
+            final int count;
+            try (SQLHandler sql = new SQLHandler(db);
+                InsertStatement is = sql.beginSection()) {
+              count = ins.insert(f, is, num);
+            }
+            System.out.println("#trips: " + count + " in " + f
+                + " (" + done.incrementAndGet() + "/" + files.length + " files)");
+            return count;
+          }
+
+        }));
+      }
+      long total = 0;
+      for(final Future<Integer> r : res) {
+        try {
+          total += r.get();
+        } catch(final ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if(cause instanceof Exception) throw (Exception) cause;
+          throw e;
+        }
+      }
+      return total;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+}
@@ -1,21 +1,34 @@
 package trails.io;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import jkanvas.io.csv.CSVReader;
 import jkanvas.io.csv.CSVRow;
-import trails.io.SQLHandler.InsertStatement;
 
 /**
- * Converts CSV into SQL content.
+ * Converts CSV into SQL content. The GPS files are parsed in parallel.
  * 
  * @author Joschi <josua.krause@gmail.com>
  */
@@ -25,6 +38,10 @@ public class SQLConverter {
   private static final File TRIP_FILE = new File("converter_progress.txt");
   /** The charset. */
   private static final String CS = "UTF-8";
+  /** The number of finished files before a checkpoint is written. */
+  private static final long CHECKPOINT_FILES = 64L;
+  /** The capacity of the work queue per worker. */
+  private static final int QUEUE_PER_WORKER = 16;
 
   /**
    * Getter.
@@ -54,6 +71,89 @@ public class SQLConverter {
     }
   }
 
+  /**
+   * A GPS file with its trip number.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  private static final class PltFile {
+
+    /** The trip number. */
+    public final long trip;
+    /** The file or <code>null</code> if this marks the end of the queue. */
+    public final Path file;
+
+    /**
+     * Creates a GPS file.
+     * 
+     * @param trip The trip number.
+     * @param file The file.
+     */
+    public PltFile(final long trip, final Path file) {
+      this.trip = trip;
+      this.file = file;
+    }
+
+  } // PltFile
+
+  /** Marks the end of the work queue. */
+  private static final PltFile END = new PltFile(-1L, null);
+
+  /**
+   * Keeps track of finished trips and writes checkpoints. The checkpoint is
+   * the lowest trip number such that all trips before are finished.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  private static final class Progress {
+
+    /** The finished trips after the checkpoint. */
+    private final TreeSet<Long> finished = new TreeSet<>();
+    /** The current checkpoint. */
+    private long mark;
+    /** The last written checkpoint. */
+    private long written;
+
+    /**
+     * Creates a progress.
+     * 
+     * @param start The first trip number.
+     */
+    public Progress(final long start) {
+      mark = start;
+      written = start;
+    }
+
+    /**
+     * Marks the given trip as finished.
+     * 
+     * @param trip The trip number.
+     * @throws IOException I/O Exception.
+     */
+    public synchronized void finish(final long trip) throws IOException {
+      finished.add(trip);
+      while(!finished.isEmpty() && finished.first() == mark) {
+        finished.pollFirst();
+        ++mark;
+      }
+      if(mark - written >= CHECKPOINT_FILES) {
+        flush();
+      }
+    }
+
+    /**
+     * Writes the current checkpoint.
+     * 
+     * @throws IOException I/O Exception.
+     */
+    public synchronized void flush() throws IOException {
+      writeTripNumber(mark);
+      written = mark;
+      System.out.println("checkpoint " + mark);
+    }
+
+  } // Progress
+
   /**
    * Fills the database with GPS trips.
    * 
@@ -66,94 +166,190 @@ public class SQLConverter {
       return;
     }
     final long startTrip = readLastTripNumber();
-    final File root = new File(args[0]);
+    final Path root = Paths.get(args[0]);
     try (SQLHandler sq = new SQLHandler("gps_trips")) {
+      sq.setCreateWindows(true);
       if(startTrip < 0) {
         sq.truncateTable();
         System.out.println("truncate table");
       } else {
+        // trips after the checkpoint may be partially inserted
+        sq.deleteVehiclesFrom(startTrip);
         System.out.println("start at " + startTrip);
       }
-      scanAll(root, new FileFilter() {
+    }
+    scanAll(root, Math.max(startTrip, 0L));
+  }
 
-        @Override
-        public boolean accept(final File f) {
-          return f.isDirectory() || f.getName().endsWith(".plt");
-        }
+  /**
+   * Scans the file-system and adds all trips. The folders are walked in sorted
+   * order so that trip numbers are stable between runs.
+   * 
+   * @param root The root folder.
+   * @param startNo The trip number where to start.
+   * @return The trip number after completion.
+   * @throws Exception Exception.
+   */
+  private static long scanAll(final Path root, final long startNo) throws Exception {
+    final int threads = Runtime.getRuntime().availableProcessors();
+    final BlockingQueue<PltFile> queue =
+        new ArrayBlockingQueue<>(threads * QUEUE_PER_WORKER);
+    final Progress progress = new Progress(startNo);
+    final ExecutorService pool = Executors.newFixedThreadPool(threads);
+    final List<Future<Void>> workers = new ArrayList<>(threads);
+    final long trips;
+    try {
+      for(int i = 0; i < threads; ++i) {
+        workers.add(pool.submit(new Callable<Void>() {
 
-      }, sq, 0L, startTrip);
+          @Override
+          public Void call() throws Exception {
+            try (SQLHandler sq = new SQLHandler("gps_trips")) {
+              sq.setCreateWindows(true);
+              PltFile f;
+              while((f = queue.take()) != END) {
+                loadFile(f, sq);
+                progress.finish(f.trip);
+              }
+            }
+            return null;
+          }
+
+        }));
+      }
+      trips = walk(root, queue, workers, 0L, startNo);
+      for(int i = 0; i < threads; ++i) {
+        enqueue(queue, END, workers);
+      }
+      for(final Future<Void> w : workers) {
+        try {
+          w.get();
+        } catch(final ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if(cause instanceof Exception) throw (Exception) cause;
+          throw e;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
     }
+    progress.flush();
+    return trips;
   }
 
   /**
-   * Scans the file-system and adds all trips.
+   * Walks the given folder and puts all GPS files into the work queue.
    * 
-   * @param root The root file.
-   * @param filter The file filter.
-   * @param accept The acceptor.
+   * @param folder The folder.
+   * @param queue The work queue.
+   * @param workers The workers consuming the queue.
    * @param tripNo The current trip number.
    * @param startNo The trip number where to start.
-   * @return The trip number after completion.
+   * @return The trip number after the folder.
    * @throws IOException I/O Exception.
+   * @throws InterruptedException If the walk got interrupted.
    */
-  private static long scanAll(final File root, final FileFilter filter,
-      final TripAcceptor<InsertStatement> accept, final long tripNo, final long startNo)
-      throws IOException {
+  private static long walk(final Path folder, final BlockingQueue<PltFile> queue,
+      final List<Future<Void>> workers, final long tripNo, final long startNo)
+      throws IOException, InterruptedException {
+    final List<Path> children = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(folder)) {
+      for(final Path p : ds) {
+        children.add(p);
+      }
+    }
+    Collections.sort(children);
     long trip = tripNo;
-    for(final File folder : root.listFiles(filter)) {
-      if(folder.isDirectory()) {
-        trip = scanAll(folder, filter, accept, trip, startNo);
+    for(final Path p : children) {
+      if(Files.isDirectory(p)) {
+        trip = walk(p, queue, workers, trip, startNo);
+        continue;
+      }
+      if(!p.getFileName().toString().endsWith(".plt")) {
         continue;
       }
-      System.out.println(folder.getAbsolutePath());
       if(trip >= startNo) {
-        if(trip == startNo) {
-          accept.removeVehicle(trip);
-        }
-        try (LineNumberReader r =
-            new LineNumberReader(new BufferedReader(new FileReader(folder)))) {
-          for(int i = 0; i < 6; ++i) {
-            r.readLine();
-          }
-          final long curTrip = trip;
-          CSVTripLoader.loadTrips(
-              CSVReader.readRows(r, new CSVReader(',', '"', false, false, true)),
-              accept, new CSVFormat() {
-
-                private boolean valid = false;
-
-                private double lastLat;
-
-                private double lastLon;
-
-                private long lastTime;
-
-                @Override
-                public boolean readTrip(final Trip t, final CSVRow row, final long rowNo) {
-                  final double curLat = (Double.parseDouble(row.get(0)) + 360.0) % 360.0;
-                  final double curLon = (Double.parseDouble(row.get(1)) + 360.0) % 360.0;
-                  final long curTime = (long) (Double.parseDouble(row.get(4)) * 24 * 60 * 60 * 1000);
-                  if(!valid) {
-                    lastLat = curLat;
-                    lastLon = curLon;
-                    lastTime = curTime;
-                  } else {
-                    t.set(rowNo, lastLat, lastLon, lastTime, curLat, curLon, curTime);
-                    t.setVehicle(curTrip);
-                  }
-                  valid = !valid;
-                  return !valid;
-                }
-
-              } // CSVFormat
-              , 0L);
-        } // try
-        System.out.println("trip " + trip);
-        writeTripNumber(trip + 1);
-      } // trip >= startNo
+        enqueue(queue, new PltFile(trip, p), workers);
+      }
       ++trip;
-    } // for
+    }
     return trip;
   }
 
+  /**
+   * Puts a file into the work queue. While the queue is full the workers are
+   * checked so that the walk stops when no worker is left to take the file.
+   * 
+   * @param queue The work queue.
+   * @param f The file.
+   * @param workers The workers consuming the queue.
+   * @throws IOException If a worker has stopped.
+   * @throws InterruptedException If the walk got interrupted.
+   */
+  private static void enqueue(final BlockingQueue<PltFile> queue, final PltFile f,
+      final List<Future<Void>> workers) throws IOException, InterruptedException {
+    while(!queue.offer(f, 100, TimeUnit.MILLISECONDS)) {
+      for(final Future<Void> w : workers) {
+        if(!w.isDone()) {
+          continue;
+        }
+        try {
+          w.get();
+        } catch(final ExecutionException e) {
+          throw new IOException("worker failed", e.getCause());
+        }
+        throw new IOException("worker stopped early");
+      }
+    }
+  }
+
+  /**
+   * Loads a single GPS file.
+   * 
+   * @param f The file.
+   * @param accept The acceptor.
+   * @throws IOException I/O Exception.
+   */
+  private static void loadFile(final PltFile f, final SQLHandler accept)
+      throws IOException {
+    try (LineNumberReader r = new LineNumberReader(
+        Files.newBufferedReader(f.file, Charset.forName(CS)))) {
+      for(int i = 0; i < 6; ++i) {
+        r.readLine();
+      }
+      CSVTripLoader.loadTrips(
+          CSVReader.readRows(r, new CSVReader(',', '"', false, false, true)),
+          accept, new CSVFormat() {
+
+            private boolean valid = false;
+
+            private double lastLat;
+
+            private double lastLon;
+
+            private long lastTime;
+
+            @Override
+            public boolean readTrip(final Trip t, final CSVRow row, final long rowNo) {
+              final double curLat = (Double.parseDouble(row.get(0)) + 360.0) % 360.0;
+              final double curLon = (Double.parseDouble(row.get(1)) + 360.0) % 360.0;
+              final long curTime = (long) (Double.parseDouble(row.get(4)) * 24 * 60 * 60 * 1000);
+              if(!valid) {
+                lastLat = curLat;
+                lastLon = curLon;
+                lastTime = curTime;
+              } else {
+                t.set(rowNo, lastLat, lastLon, lastTime, curLat, curLon, curTime);
+                t.setVehicle(f.trip);
+              }
+              valid = !valid;
+              return !valid;
+            }
+
+          } // CSVFormat
+          , 0L);
+    } // try
+    System.out.println("trip " + f.trip + " " + f.file);
+  }
+
 }
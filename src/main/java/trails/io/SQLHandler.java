@@ -9,7 +9,10 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Objects;
 
 import trails.io.SQLHandler.InsertStatement;
@@ -38,6 +41,9 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
     // Table: trips
     // Columns: start_lat, start_lon, end_lat, end_lon,
     // [start_time], end_time, vehicle
+    // Table: windows (only for GPS tracks, see setCreateWindows)
+    // Columns: [bucket], [vehicle], start_time, start_lat, start_lon,
+    // end_time, end_lat, end_lon
     connection = DriverManager.getConnection(url, user, password);
     System.out.println(connection.getMetaData().getURL());
   }
@@ -73,12 +79,69 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
   }
 
   /** Whether to use the simple range query. */
-  private static final boolean EASY_QUERY = true;
+  private boolean easyQuery = true;
+  /** The size of a precomputed vehicle window in milliseconds. */
+  public static final long WINDOW_SIZE = 60L * 1000L; // 1min
+  /** Whether to compute vehicle windows while inserting. */
+  private boolean createWindows;
+
+  /**
+   * Setter.
+   * 
+   * @param createWindows Whether to compute the first and last positions of
+   *          every vehicle per window while inserting. This is needed when
+   *          reading GPS tracks.
+   */
+  public void setCreateWindows(final boolean createWindows) {
+    this.createWindows = createWindows;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether to compute vehicle windows while inserting.
+   */
+  public boolean isCreatingWindows() {
+    return createWindows;
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param easyQuery Whether to read the trips as they are. Otherwise every
+   *          vehicle is read as one trip from its first to its last position
+   *          using the precomputed vehicle windows. Counting is only supported
+   *          for the simple range query.
+   */
+  public void setEasyQuery(final boolean easyQuery) {
+    this.easyQuery = easyQuery;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether to read the trips as they are.
+   */
+  public boolean isEasyQuery() {
+    return easyQuery;
+  }
+
+  /**
+   * Checks whether the vehicle windows table exists.
+   * 
+   * @return Whether the table exists.
+   * @throws SQLException SQL Exception.
+   */
+  private boolean hasWindowsTable() throws SQLException {
+    try (ResultSet res = connection.getMetaData().getTables(null, null, "windows", null)) {
+      return res.next();
+    }
+  }
 
   @Override
   public int count(final long fromTime, final long toTime, final long vehicle)
       throws IOException {
-    if(!EASY_QUERY) throw new IllegalStateException("must be in easy query mode");
+    if(!easyQuery) throw new IllegalStateException("must be in easy query mode");
     final String query = "SELECT COUNT(*) AS count FROM trips "
         + "WHERE start_time >= " + fromTime + " AND start_time < " + toTime
         + " AND vehicle = " + vehicle;
@@ -94,10 +157,38 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
     }
   }
 
+  @Override
+  public int[][] countHistogram(final long start, final long step,
+      final long windowFrom, final long windowTo, final int slots) throws IOException {
+    if(!easyQuery) throw new IllegalStateException("must be in easy query mode");
+    final int[][] counts = new int[2][slots];
+    if(slots <= 0) return counts;
+    final String off = "(start_time - " + start + ")";
+    final String query = "SELECT vehicle, " + off + " DIV " + step + " AS slot, "
+        + "COUNT(*) AS count FROM trips "
+        + "WHERE start_time >= " + (start + windowFrom)
+        + " AND start_time < " + (start + (slots - 1) * step + windowTo)
+        + " AND " + off + " MOD " + step + " >= " + windowFrom
+        + " AND " + off + " MOD " + step + " < " + windowTo
+        + " AND vehicle IN (0, 1) GROUP BY vehicle, slot";
+    try {
+      final ResultSet res = query(query);
+      while(res.next()) {
+        final int slot = res.getInt("slot");
+        if(slot < 0 || slot >= slots) throw new IOException("invalid slot: " + slot);
+        counts[res.getInt("vehicle")][slot] = res.getInt("count");
+      }
+      res.close();
+      return counts;
+    } catch(final SQLException e) {
+      throw new IOException(e);
+    }
+  }
+
   @Override
   public List<Trip> read(final long startIndex, final long fromTime, final long toTime)
       throws IOException {
-    if(EASY_QUERY) {
+    if(easyQuery) {
       final String query = "SELECT * FROM trips "
           + "WHERE start_time >= " + fromTime + " AND start_time < " + toTime;
       try {
@@ -118,29 +209,97 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
       }
     }
     // only useful for GPS tracks
-    final String where = "start_time >= " + fromTime + " AND start_time < " + toTime;
-    final String start = "SELECT MIN(start_time) AS start_time, vehicle, start_lat, start_lon "
-        + "FROM trips WHERE " + where + " GROUP BY vehicle";
-    final String end = "SELECT MAX(end_time) AS end_time, vehicle, end_lat, end_lon "
-        + "FROM trips WHERE " + where + " GROUP BY vehicle";
-    final String q = "SELECT start.start_time AS start_time, start.vehicle AS vehicle, "
-        + "start.start_lat AS start_lat, start.start_lon AS start_lon, "
-        + "end.end_time AS end_time, end.end_lat AS end_lat, end.end_lon AS end_lon "
-        + "FROM (" + start + ") AS start, (" + end
-        + ") AS end WHERE start.vehicle = end.vehicle";
+    final long firstBucket = (fromTime + WINDOW_SIZE - 1L) / WINDOW_SIZE;
+    final long lastBucket = toTime / WINDOW_SIZE;
+    final Map<Long, TripWindow> windows = new HashMap<>();
     try {
-      final ResultSet res = query(q);
-      final List<Trip> list = new ArrayList<>();
-      while(res.next()) {
-        final Trip t = new Trip();
-        t.set(-1, res.getDouble("start_lat"), res.getDouble("start_lon"),
-            res.getLong("start_time"), res.getDouble("end_lat"),
-            res.getDouble("end_lon"), res.getLong("end_time"));
-        t.setVehicle(res.getLong("vehicle"));
-        list.add(t);
+      if(firstBucket >= lastBucket) {
+        readTripWindows(windows, fromTime, toTime);
+      } else {
+        // partial buckets at the borders come from the trips themselves
+        readTripWindows(windows, fromTime, firstBucket * WINDOW_SIZE);
+        final ResultSet res = query("SELECT * FROM windows "
+            + "WHERE bucket >= " + firstBucket + " AND bucket < " + lastBucket);
+        while(res.next()) {
+          getWindow(windows, res.getLong("vehicle")).add(
+              res.getLong("start_time"), res.getDouble("start_lat"),
+              res.getDouble("start_lon"), res.getLong("end_time"),
+              res.getDouble("end_lat"), res.getDouble("end_lon"));
+        }
+        res.close();
+        readTripWindows(windows, lastBucket * WINDOW_SIZE, toTime);
+      }
+    } catch(final SQLException e) {
+      throw new IOException(e);
+    }
+    final List<Trip> list = new ArrayList<>(windows.size());
+    for(final TripWindow w : windows.values()) {
+      list.add(w.toTrip());
+    }
+    return list;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param windows The windows per vehicle.
+   * @param vehicle The vehicle.
+   * @return The window of the given vehicle. The window is created if it does
+   *         not exist yet.
+   */
+  private static TripWindow getWindow(
+      final Map<Long, TripWindow> windows, final long vehicle) {
+    TripWindow w = windows.get(vehicle);
+    if(w == null) {
+      w = new TripWindow(vehicle);
+      windows.put(vehicle, w);
+    }
+    return w;
+  }
+
+  /**
+   * Adds all trips of the given time span to the windows of their vehicles.
+   * 
+   * @param windows The windows per vehicle.
+   * @param fromTime The lowest inclusive time.
+   * @param toTime The highest exclusive time.
+   * @throws SQLException SQL Exception.
+   */
+  private void readTripWindows(final Map<Long, TripWindow> windows,
+      final long fromTime, final long toTime) throws SQLException {
+    if(fromTime >= toTime) return;
+    final ResultSet res = query("SELECT * FROM trips "
+        + "WHERE start_time >= " + fromTime + " AND start_time < " + toTime);
+    while(res.next()) {
+      getWindow(windows, res.getLong("vehicle")).add(
+          res.getLong("start_time"), res.getDouble("start_lat"),
+          res.getDouble("start_lon"), res.getLong("end_time"),
+          res.getDouble("end_lat"), res.getDouble("end_lon"));
+    }
+    res.close();
+  }
+
+  @Override
+  public long nextTripTimeAtOrAfter(final long time, final long windowFrom,
+      final long windowTo, final long sliceLength) throws IOException {
+    final String off = "(start_time - " + time + ")";
+    // the primary key is ordered by start time so this stops at the first hit
+    final String query = "SELECT start_time FROM trips "
+        + "WHERE start_time >= " + (time + windowFrom)
+        + " AND " + off + " MOD " + sliceLength + " >= " + windowFrom
+        + " AND " + off + " MOD " + sliceLength + " < " + windowTo
+        + " ORDER BY start_time LIMIT 1";
+    try {
+      final ResultSet res = query(query);
+      final long next;
+      if(res.next()) {
+        final long startTime = res.getLong("start_time");
+        next = time + (startTime - time) / sliceLength * sliceLength;
+      } else {
+        next = -1L;
       }
       res.close();
-      return list;
+      return next;
     } catch(final SQLException e) {
       throw new IOException(e);
     }
@@ -279,6 +438,23 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
         + ") ENGINE=MyISAM;";
     System.out.println(create);
     stmt.executeUpdate(create);
+    stmt.executeUpdate("DROP TABLE IF EXISTS windows");
+    // the vehicle windows are only needed for GPS tracks
+    if(createWindows) {
+      final String windows = "CREATE TABLE windows ("
+          + " bucket bigint NOT NULL,"
+          + " vehicle bigint NOT NULL,"
+          + " start_time bigint NOT NULL,"
+          + " start_lat double NOT NULL,"
+          + " start_lon double NOT NULL,"
+          + " end_time bigint NOT NULL,"
+          + " end_lat double NOT NULL,"
+          + " end_lon double NOT NULL,"
+          + " PRIMARY KEY (bucket,vehicle)"
+          + ") ENGINE=MyISAM;";
+      System.out.println(windows);
+      stmt.executeUpdate(windows);
+    }
     stmt.close();
     onChange();
   }
@@ -293,6 +469,26 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
     final Statement stmt = connection.createStatement();
     final int num = stmt.executeUpdate("DELETE FROM trips WHERE vehicle = " + vehicle);
     System.out.println(num + " rows deleted for vehicle = " + vehicle);
+    if(hasWindowsTable()) {
+      stmt.executeUpdate("DELETE FROM windows WHERE vehicle = " + vehicle);
+    }
+    stmt.close();
+    onChange();
+  }
+
+  /**
+   * Deletes all trips from the given vehicle and all vehicles after it.
+   * 
+   * @param vehicle The first vehicle to delete.
+   * @throws SQLException SQL-Exception.
+   */
+  public void deleteVehiclesFrom(final long vehicle) throws SQLException {
+    final Statement stmt = connection.createStatement();
+    final int num = stmt.executeUpdate("DELETE FROM trips WHERE vehicle >= " + vehicle);
+    System.out.println(num + " rows deleted for vehicle >= " + vehicle);
+    if(hasWindowsTable()) {
+      stmt.executeUpdate("DELETE FROM windows WHERE vehicle >= " + vehicle);
+    }
     stmt.close();
     onChange();
   }
@@ -310,7 +506,7 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
   public InsertStatement beginSection() throws IOException {
     ensureConnection();
     try {
-      return new InsertStatement(connection);
+      return new InsertStatement(connection, createWindows);
     } catch(final SQLException e) {
       throw new IOException(e);
     }
@@ -325,20 +521,42 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
 
     /** The statement. */
     private final PreparedStatement stmt;
+    /** The window statement or <code>null</code> if no windows are created. */
+    private final PreparedStatement windowStmt;
     /** The connection. */
     private final Connection conn;
+    /** The pending windows per vehicle and bucket. */
+    private final Map<Long, Map<Long, TripWindow>> windows;
 
     /**
      * Enables to insert to the database.
      * 
      * @param conn The connection.
+     * @param createWindows Whether to compute vehicle windows.
      * @throws SQLException SQL Exception.
      */
-    public InsertStatement(final Connection conn) throws SQLException {
+    public InsertStatement(final Connection conn, final boolean createWindows)
+        throws SQLException {
       this.conn = conn;
       stmt = conn.prepareStatement("INSERT INTO trips "
           + "(start_time, vehicle, end_time, start_lat, start_lon, end_lat, end_lon) "
           + "VALUES(?, ?, ?, ?, ?, ?, ?)");
+      if(createWindows) {
+        // times must be assigned last since MySQL updates from left to right
+        windowStmt = conn.prepareStatement("INSERT INTO windows "
+            + "(bucket, vehicle, start_time, start_lat, start_lon, end_time, end_lat, end_lon) "
+            + "VALUES(?, ?, ?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE "
+            + "start_lat = IF(VALUES(start_time) < start_time, VALUES(start_lat), start_lat), "
+            + "start_lon = IF(VALUES(start_time) < start_time, VALUES(start_lon), start_lon), "
+            + "start_time = LEAST(start_time, VALUES(start_time)), "
+            + "end_lat = IF(VALUES(end_time) > end_time, VALUES(end_lat), end_lat), "
+            + "end_lon = IF(VALUES(end_time) > end_time, VALUES(end_lon), end_lon), "
+            + "end_time = GREATEST(end_time, VALUES(end_time))");
+        windows = new HashMap<>();
+      } else {
+        windowStmt = null;
+        windows = null;
+      }
     }
 
     /** The vehicle number. */
@@ -368,11 +586,53 @@ public class SQLHandler implements TripManager, TripAcceptor<InsertStatement> {
       stmt.setDouble(6, t.getDropoffLat());
       stmt.setDouble(7, t.getDropoffLon());
       stmt.executeUpdate();
+      if(windows != null) {
+        Map<Long, TripWindow> buckets = windows.get(v);
+        if(buckets == null) {
+          buckets = new HashMap<>();
+          windows.put(v, buckets);
+        }
+        final long bucket = t.getPickupTime() / WINDOW_SIZE;
+        TripWindow w = buckets.get(bucket);
+        if(w == null) {
+          w = new TripWindow(v);
+          buckets.put(bucket, w);
+        }
+        w.add(t);
+      }
+    }
+
+    /**
+     * Writes all pending windows.
+     * 
+     * @throws SQLException SQL Exception.
+     */
+    private void flushWindows() throws SQLException {
+      for(final Map<Long, TripWindow> buckets : windows.values()) {
+        for(final Entry<Long, TripWindow> e : buckets.entrySet()) {
+          final TripWindow w = e.getValue();
+          windowStmt.setLong(1, e.getKey());
+          windowStmt.setLong(2, w.getVehicle());
+          windowStmt.setLong(3, w.getStartTime());
+          windowStmt.setDouble(4, w.getStartLat());
+          windowStmt.setDouble(5, w.getStartLon());
+          windowStmt.setLong(6, w.getEndTime());
+          windowStmt.setDouble(7, w.getEndLat());
+          windowStmt.setDouble(8, w.getEndLon());
+          windowStmt.addBatch();
+        }
+      }
+      windowStmt.executeBatch();
+      windows.clear();
     }
 
     @Override
     public void close() throws Exception {
       stmt.close();
+      if(windowStmt != null) {
+        flushWindows();
+        windowStmt.close();
+      }
       if(!conn.getAutoCommit()) {
         conn.commit();
       }
@@ -32,6 +32,41 @@ public interface TripManager extends AutoCloseable {
    */
   int count(long fromTime, long toTime, long vehicle) throws IOException;
 
+  /**
+   * Counts the trips of consecutive slots at once. Slot <code>i</code> covers
+   * the trips with a start time in
+   * <code>[start + i * step + windowFrom, start + i * step + windowTo)</code>.
+   * 
+   * @param start The start of the first slot.
+   * @param step The length of a slot.
+   * @param windowFrom The start of the window within a slot inclusive.
+   * @param windowTo The end of the window within a slot exclusive. Must not be
+   *          larger than the step.
+   * @param slots The number of slots.
+   * @return The number of trips indexed by vehicle (<code>0</code> and
+   *         <code>1</code>) and slot.
+   * @throws IOException I/O Exception.
+   */
+  int[][] countHistogram(long start, long step, long windowFrom, long windowTo, int slots)
+      throws IOException;
+
+  /**
+   * Finds the next slice containing trips. Slices start at
+   * <code>time + k * sliceLength</code> and contain the trips with a start
+   * time in <code>[slice + windowFrom, slice + windowTo)</code>.
+   * 
+   * @param time The start of the first slice to consider.
+   * @param windowFrom The start of the window within a slice inclusive.
+   * @param windowTo The end of the window within a slice exclusive. Must not
+   *          be larger than the slice length.
+   * @param sliceLength The length of a slice.
+   * @return The start of the first slice at or after the given time that
+   *         contains trips or <code>-1</code> if there is none.
+   * @throws IOException I/O Exception.
+   */
+  long nextTripTimeAtOrAfter(long time, long windowFrom, long windowTo, long sliceLength)
+      throws IOException;
+
   /**
    * Getter.
    * 
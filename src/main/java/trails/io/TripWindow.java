@@ -0,0 +1,143 @@
+package trails.io;
+
+/**
+ * The first and last position of a vehicle within a time window.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+final class TripWindow {
+
+  /** The vehicle. */
+  private final long vehicle;
+  /** The earliest start time. */
+  private long startTime = Long.MAX_VALUE;
+  /** The start latitude. */
+  private double startLat = Double.NaN;
+  /** The start longitude. */
+  private double startLon = Double.NaN;
+  /** The latest end time. */
+  private long endTime = Long.MIN_VALUE;
+  /** The end latitude. */
+  private double endLat = Double.NaN;
+  /** The end longitude. */
+  private double endLon = Double.NaN;
+
+  /**
+   * Creates an empty window.
+   * 
+   * @param vehicle The vehicle.
+   */
+  public TripWindow(final long vehicle) {
+    this.vehicle = vehicle;
+  }
+
+  /**
+   * Adds a trip to the window.
+   * 
+   * @param sTime The start time.
+   * @param sLat The start latitude.
+   * @param sLon The start longitude.
+   * @param eTime The end time.
+   * @param eLat The end latitude.
+   * @param eLon The end longitude.
+   */
+  public void add(final long sTime, final double sLat, final double sLon,
+      final long eTime, final double eLat, final double eLon) {
+    if(sTime < startTime) {
+      startTime = sTime;
+      startLat = sLat;
+      startLon = sLon;
+    }
+    if(eTime > endTime) {
+      endTime = eTime;
+      endLat = eLat;
+      endLon = eLon;
+    }
+  }
+
+  /**
+   * Adds a trip to the window.
+   * 
+   * @param t The trip.
+   */
+  public void add(final Trip t) {
+    add(t.getPickupTime(), t.getPickupLat(), t.getPickupLon(),
+        t.getDropoffTime(), t.getDropoffLat(), t.getDropoffLon());
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The vehicle.
+   */
+  public long getVehicle() {
+    return vehicle;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The earliest start time.
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start latitude.
+   */
+  public double getStartLat() {
+    return startLat;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start longitude.
+   */
+  public double getStartLon() {
+    return startLon;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The latest end time.
+   */
+  public long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The end latitude.
+   */
+  public double getEndLat() {
+    return endLat;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The end longitude.
+   */
+  public double getEndLon() {
+    return endLon;
+  }
+
+  /**
+   * Converts the window into a trip from the first to the last position.
+   * 
+   * @return The trip.
+   */
+  public Trip toTrip() {
+    final Trip t = new Trip();
+    t.set(-1, startLat, startLon, startTime, endLat, endLon, endTime);
+    t.setVehicle(vehicle);
+    return t;
+  }
+
+}
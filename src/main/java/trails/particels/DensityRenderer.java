@@ -0,0 +1,168 @@
+package trails.particels;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Renders particles as a density field. Particles are accumulated into one
+ * float grid per color channel, blurred with a separable gaussian kernel, and
+ * tone-mapped onto the image. The cost depends on the number of pixels rather
+ * than the number of particles. The renderer is not thread safe.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+final class DensityRenderer {
+
+  /** The standard deviation of the blur in pixels. */
+  private static final double SIGMA = 1.5;
+  /** The exposure of the tone mapping. */
+  private static final double EXPOSURE = 1.5;
+  /** The number of entries in the tone mapping table per unit of density. */
+  private static final int TONE_STEPS = 128;
+  /** The largest density in the tone mapping table. */
+  private static final int TONE_MAX = 8;
+
+  /** The pixels of the image. */
+  private final int[] pixels;
+  /** The width of the image. */
+  private final int width;
+  /** The height of the image. */
+  private final int height;
+  /** The red density. */
+  private final float[] red;
+  /** The green density. */
+  private final float[] green;
+  /** The blue density. */
+  private final float[] blue;
+  /** The buffer for the horizontal blur. */
+  private final float[] tmp;
+  /** The normalized blur kernel. */
+  private final float[] kernel;
+  /** The tone mapping from density to intensity from <code>0</code> to <code>256</code>. */
+  private final int[] tone;
+
+  /**
+   * Creates a density renderer for the given image.
+   * 
+   * @param img The image. Must be of type {@link BufferedImage#TYPE_INT_ARGB}.
+   */
+  public DensityRenderer(final BufferedImage img) {
+    if(img.getType() != BufferedImage.TYPE_INT_ARGB) throw new IllegalArgumentException(
+        "unsupported image type: " + img.getType());
+    pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    width = img.getWidth();
+    height = img.getHeight();
+    red = new float[width * height];
+    green = new float[width * height];
+    blue = new float[width * height];
+    tmp = new float[width * height];
+    final int k = (int) Math.ceil(SIGMA * 3.0);
+    kernel = new float[k * 2 + 1];
+    double sum = 0.0;
+    for(int i = -k; i <= k; ++i) {
+      final double v = Math.exp(-(i * i) / (2.0 * SIGMA * SIGMA));
+      kernel[i + k] = (float) v;
+      sum += v;
+    }
+    for(int i = 0; i < kernel.length; ++i) {
+      kernel[i] /= sum;
+    }
+    tone = new int[TONE_MAX * TONE_STEPS + 1];
+    for(int i = 0; i < tone.length; ++i) {
+      tone[i] = (int) Math.round((1.0 - Math.exp(-EXPOSURE * i / TONE_STEPS)) * 256.0);
+    }
+  }
+
+  /**
+   * Renders particles. The image must already be faded.
+   * 
+   * @param x The x coordinates.
+   * @param y The y coordinates.
+   * @param r The radii.
+   * @param rgb The colors.
+   * @param count The number of particles.
+   * @param strength The opacity of the particles.
+   */
+  public void render(final double[] x, final double[] y, final double[] r,
+      final int[] rgb, final int count, final float strength) {
+    Arrays.fill(red, 0f);
+    Arrays.fill(green, 0f);
+    Arrays.fill(blue, 0f);
+    for(int i = 0; i < count; ++i) {
+      final int px = (int) Math.floor(x[i]);
+      final int py = (int) Math.floor(y[i]);
+      if(px < 0 || py < 0 || px >= width || py >= height) {
+        continue;
+      }
+      // the area of the disc relative to a unit disc
+      final float a = (float) (r[i] * r[i]) / 255f;
+      final int idx = py * width + px;
+      final int c = rgb[i];
+      red[idx] += ((c >> 16) & 0xFF) * a;
+      green[idx] += ((c >> 8) & 0xFF) * a;
+      blue[idx] += (c & 0xFF) * a;
+    }
+    blur(red);
+    blur(green);
+    blur(blue);
+    final int str = Math.round(strength * 256f);
+    final int[] px = pixels;
+    for(int i = 0; i < px.length; ++i) {
+      final int p = px[i];
+      final int pr = screen((p >> 16) & 0xFF, red[i], str);
+      final int pg = screen((p >> 8) & 0xFF, green[i], str);
+      final int pb = screen(p & 0xFF, blue[i], str);
+      px[i] = (p & 0xFF000000) | (pr << 16) | (pg << 8) | pb;
+    }
+  }
+
+  /**
+   * Blends the tone-mapped density onto a color channel.
+   * 
+   * @param c The channel value.
+   * @param density The density.
+   * @param str The opacity from <code>0</code> to <code>256</code>.
+   * @return The new channel value.
+   */
+  private int screen(final int c, final float density, final int str) {
+    final int t = tone[Math.min((int) (density * TONE_STEPS), tone.length - 1)] * str >> 8;
+    return c + ((255 - c) * t >> 8);
+  }
+
+  /**
+   * Blurs a grid in place.
+   * 
+   * @param grid The grid.
+   */
+  private void blur(final float[] grid) {
+    final int k = kernel.length / 2;
+    for(int y = 0; y < height; ++y) {
+      final int row = y * width;
+      for(int x = 0; x < width; ++x) {
+        float sum = 0f;
+        final int from = Math.max(x - k, 0);
+        final int to = Math.min(x + k, width - 1);
+        for(int i = from; i <= to; ++i) {
+          sum += grid[row + i] * kernel[i - x + k];
+        }
+        tmp[row + x] = sum;
+      }
+    }
+    Arrays.fill(grid, 0f);
+    for(int y = 0; y < height; ++y) {
+      final int row = y * width;
+      final int from = Math.max(y - k, 0);
+      final int to = Math.min(y + k, height - 1);
+      // row by row to access memory sequentially
+      for(int i = from; i <= to; ++i) {
+        final float w = kernel[i - y + k];
+        final int src = i * width;
+        for(int x = 0; x < width; ++x) {
+          grid[row + x] += tmp[src + x] * w;
+        }
+      }
+    }
+  }
+
+}
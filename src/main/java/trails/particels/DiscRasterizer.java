@@ -0,0 +1,241 @@
+package trails.particels;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Draws directly into the pixels of an ARGB image. Discs are splatted from
+ * precomputed antialiased sprites. All operations can be restricted to a
+ * clip rectangle. Multiple threads may use the rasterizer at the same time as
+ * long as their clip rectangles do not overlap.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+final class DiscRasterizer {
+
+  /** The number of sprites per pixel of radius. */
+  private static final int RADIUS_STEPS = 4;
+  /** The largest radius with a sprite. Larger discs are clamped. */
+  private static final double MAX_RADIUS = 64.0;
+  /** The number of samples per pixel and axis to compute the coverage. */
+  private static final int SAMPLES = 4;
+
+  /**
+   * An antialiased disc.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  private static final class Sprite {
+
+    /** The width and height of the sprite. */
+    final int size;
+    /** The offset of the center pixel. */
+    final int center;
+    /** The coverage of every pixel from <code>0</code> to <code>256</code>. */
+    final int[] coverage;
+
+    /**
+     * Computes a sprite.
+     * 
+     * @param r The radius.
+     */
+    Sprite(final double r) {
+      center = (int) Math.ceil(r);
+      size = center * 2 + 1;
+      coverage = new int[size * size];
+      final double rr = r * r;
+      final int total = SAMPLES * SAMPLES;
+      for(int py = 0; py < size; ++py) {
+        for(int px = 0; px < size; ++px) {
+          int hits = 0;
+          for(int sy = 0; sy < SAMPLES; ++sy) {
+            final double dy = py - center - 0.5 + (sy + 0.5) / SAMPLES;
+            for(int sx = 0; sx < SAMPLES; ++sx) {
+              final double dx = px - center - 0.5 + (sx + 0.5) / SAMPLES;
+              if(dx * dx + dy * dy <= rr) {
+                ++hits;
+              }
+            }
+          }
+          coverage[py * size + px] = hits * 256 / total;
+        }
+      }
+    }
+
+  } // Sprite
+
+  /** The sprites by radius step. */
+  private final Sprite[] sprites = new Sprite[(int) (MAX_RADIUS * RADIUS_STEPS) + 1];
+  /** The pixels of the image. */
+  private final int[] pixels;
+  /** The width of the image. */
+  private final int width;
+  /** The height of the image. */
+  private final int height;
+
+  /**
+   * Creates a rasterizer for the given image.
+   * 
+   * @param img The image. Must be of type {@link BufferedImage#TYPE_INT_ARGB}.
+   */
+  public DiscRasterizer(final BufferedImage img) {
+    if(img.getType() != BufferedImage.TYPE_INT_ARGB) throw new IllegalArgumentException(
+        "unsupported image type: " + img.getType());
+    pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    width = img.getWidth();
+    height = img.getHeight();
+  }
+
+  /**
+   * Fades all pixels towards opaque black.
+   * 
+   * @param alpha The remaining strength of the colors.
+   */
+  public void fade(final double alpha) {
+    fade(alpha, 0, 0, width, height);
+  }
+
+  /**
+   * Fades the pixels of a rectangle towards opaque black.
+   * 
+   * @param alpha The remaining strength of the colors.
+   * @param x0 The left clip border inclusive.
+   * @param y0 The top clip border inclusive.
+   * @param x1 The right clip border exclusive.
+   * @param y1 The bottom clip border exclusive.
+   */
+  public void fade(final double alpha, final int x0, final int y0,
+      final int x1, final int y1) {
+    final int f = (int) Math.round(Math.max(0.0, Math.min(alpha, 1.0)) * 256.0);
+    final int[] px = pixels;
+    for(int y = Math.max(y0, 0); y < Math.min(y1, height); ++y) {
+      final int row = y * width;
+      for(int i = row + Math.max(x0, 0); i < row + Math.min(x1, width); ++i) {
+        final int p = px[i];
+        final int a = p >>> 24;
+        final int na = a + ((255 - a) * (256 - f) >> 8);
+        final int rb = ((p & 0xFF00FF) * f >>> 8) & 0xFF00FF;
+        final int g = ((p & 0x00FF00) * f >>> 8) & 0x00FF00;
+        px[i] = (na << 24) | rb | g;
+      }
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param r The radius.
+   * @return The distance from the center to the border of the sprite that is
+   *         used for the given radius.
+   */
+  public int getExtent(final double r) {
+    return getSprite(r).center + 1;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param r The radius.
+   * @return The sprite with the closest radius.
+   */
+  private Sprite getSprite(final double r) {
+    // sprites are immutable so concurrent creation is harmless
+    final int step = (int) Math.round(Math.min(r, MAX_RADIUS) * RADIUS_STEPS);
+    Sprite s = sprites[step];
+    if(s == null) {
+      s = new Sprite((double) step / RADIUS_STEPS);
+      sprites[step] = s;
+    }
+    return s;
+  }
+
+  /**
+   * Blends a disc into the image.
+   * 
+   * @param x The x coordinate of the center.
+   * @param y The y coordinate of the center.
+   * @param r The radius.
+   * @param rgb The color.
+   * @param strength The opacity of the disc.
+   */
+  public void splat(final double x, final double y, final double r,
+      final int rgb, final float strength) {
+    splat(x, y, r, rgb, strength, 0, 0, width, height);
+  }
+
+  /**
+   * Blends the part of a disc that lies within a rectangle into the image.
+   * 
+   * @param x The x coordinate of the center.
+   * @param y The y coordinate of the center.
+   * @param r The radius.
+   * @param rgb The color.
+   * @param strength The opacity of the disc.
+   * @param x0 The left clip border inclusive.
+   * @param y0 The top clip border inclusive.
+   * @param x1 The right clip border exclusive.
+   * @param y1 The bottom clip border exclusive.
+   */
+  public void splat(final double x, final double y, final double r, final int rgb,
+      final float strength, final int x0, final int y0, final int x1, final int y1) {
+    if(Double.isNaN(x) || Double.isNaN(y) || !(r > 0)) return;
+    final Sprite s = getSprite(r);
+    final int left = (int) Math.floor(x) - s.center;
+    final int top = (int) Math.floor(y) - s.center;
+    final int right = Math.min(x1, width);
+    final int bottom = Math.min(y1, height);
+    final int minX = Math.max(x0, 0);
+    final int minY = Math.max(y0, 0);
+    if(left >= right || top >= bottom || left + s.size <= minX || top + s.size <= minY) return;
+    final int str = Math.round(strength * 256f);
+    final int sr = (rgb >> 16) & 0xFF;
+    final int sg = (rgb >> 8) & 0xFF;
+    final int sb = rgb & 0xFF;
+    final int sa = Math.min(str, 255);
+    final int fromY = Math.max(0, minY - top);
+    final int toY = Math.min(s.size, bottom - top);
+    final int fromX = Math.max(0, minX - left);
+    final int toX = Math.min(s.size, right - left);
+    final int[] cov = s.coverage;
+    final int[] px = pixels;
+    for(int sy = fromY; sy < toY; ++sy) {
+      final int row = (top + sy) * width + left;
+      final int srow = sy * s.size;
+      for(int sx = fromX; sx < toX; ++sx) {
+        final int c = cov[srow + sx] * str >> 8;
+        if(c == 0) {
+          continue;
+        }
+        final int i = row + sx;
+        final int p = px[i];
+        final int da = p >>> 24;
+        final int dr = (p >> 16) & 0xFF;
+        final int dg = (p >> 8) & 0xFF;
+        final int db = p & 0xFF;
+        px[i] = ((da + ((sa - da) * c >> 8)) << 24)
+            | ((dr + ((sr - dr) * c >> 8)) << 16)
+            | ((dg + ((sg - dg) * c >> 8)) << 8)
+            | (db + ((sb - db) * c >> 8));
+      }
+    }
+  }
+
+}
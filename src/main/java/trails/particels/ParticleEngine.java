@@ -0,0 +1,310 @@
+package trails.particels;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.Objects;
+
+import jkanvas.animation.Animated;
+import jkanvas.util.Interpolator;
+import jkanvas.util.VecUtil;
+
+/**
+ * Animates many particles along bent paths. The state of all particles is
+ * stored in parallel primitive arrays. Positions are evaluated in one loop per
+ * frame and the slots of finished particles are reused via a free list. When
+ * less than half of the used slots hold active particles the particles at the
+ * end are moved into the free slots so that the loops only cover about as many
+ * slots as there are active particles. The positions of the previous frame are kept so that renderers can interpolate
+ * between frames. The arrays are guarded by the engine itself and may be read
+ * by classes of this package while holding the lock of the engine.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class ParticleEngine implements Animated {
+
+  /** The color of unused slots. */
+  static final int UNUSED = -1;
+  /** The initial number of slots. */
+  private static final int INITIAL_SIZE = 1024;
+
+  /** The current x coordinates. */
+  double[] x;
+  /** The current y coordinates. */
+  double[] y;
+  /** The x coordinates of the previous frame. */
+  double[] prevX;
+  /** The y coordinates of the previous frame. */
+  double[] prevY;
+  /** The sizes. */
+  double[] size;
+  /** The colors or {@link #UNUSED}. */
+  int[] color;
+  /** The number of slots that may be in use. All slots above are unused. */
+  int high;
+  /** The start x coordinates. */
+  private double[] startX;
+  /** The start y coordinates. */
+  private double[] startY;
+  /** The x coordinates of the control points. */
+  private double[] ctrlX;
+  /** The y coordinates of the control points. */
+  private double[] ctrlY;
+  /** The end x coordinates. */
+  private double[] endX;
+  /** The end y coordinates. */
+  private double[] endY;
+  /** The start times. */
+  private long[] start;
+  /** The durations. */
+  private long[] duration;
+  /** The stack of free slots. */
+  private int[] free;
+  /** The number of free slots. */
+  private int freeCount;
+  /** The number of active particles. */
+  private int active;
+  /** The time of the last frame. */
+  private long now;
+  /** The interpolation. */
+  private Interpolator interpolate = Interpolator.QUAD_IN_OUT;
+
+  /** Creates an engine without particles. */
+  public ParticleEngine() {
+    alloc(INITIAL_SIZE);
+  }
+
+  /**
+   * Resizes all arrays.
+   * 
+   * @param capacity The new capacity.
+   */
+  private void alloc(final int capacity) {
+    x = x == null ? new double[capacity] : Arrays.copyOf(x, capacity);
+    y = y == null ? new double[capacity] : Arrays.copyOf(y, capacity);
+    prevX = prevX == null ? new double[capacity] : Arrays.copyOf(prevX, capacity);
+    prevY = prevY == null ? new double[capacity] : Arrays.copyOf(prevY, capacity);
+    size = size == null ? new double[capacity] : Arrays.copyOf(size, capacity);
+    color = color == null ? new int[capacity] : Arrays.copyOf(color, capacity);
+    startX = startX == null ? new double[capacity] : Arrays.copyOf(startX, capacity);
+    startY = startY == null ? new double[capacity] : Arrays.copyOf(startY, capacity);
+    ctrlX = ctrlX == null ? new double[capacity] : Arrays.copyOf(ctrlX, capacity);
+    ctrlY = ctrlY == null ? new double[capacity] : Arrays.copyOf(ctrlY, capacity);
+    endX = endX == null ? new double[capacity] : Arrays.copyOf(endX, capacity);
+    endY = endY == null ? new double[capacity] : Arrays.copyOf(endY, capacity);
+    start = start == null ? new long[capacity] : Arrays.copyOf(start, capacity);
+    duration = duration == null ? new long[capacity] : Arrays.copyOf(duration, capacity);
+    free = free == null ? new int[capacity] : Arrays.copyOf(free, capacity);
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param interpolate Sets the interpolation.
+   */
+  public synchronized void setInterpolator(final Interpolator interpolate) {
+    this.interpolate = Objects.requireNonNull(interpolate);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The interpolation.
+   */
+  public synchronized Interpolator getInterpolator() {
+    return interpolate;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of active particles.
+   */
+  public synchronized int getActiveCount() {
+    return active;
+  }
+
+  /**
+   * Starts a particle. The path is bent to the right by
+   * {@link Particle#bendRatio}.
+   * 
+   * @param sx The start x coordinate.
+   * @param sy The start y coordinate.
+   * @param ex The end x coordinate.
+   * @param ey The end y coordinate.
+   * @param time The duration of the path.
+   * @param s The size of the particle.
+   * @param col The color. {@link Particle#RED}, {@link Particle#GREEN}, or
+   *          {@link Particle#BLUE}.
+   */
+  public synchronized void startPath(final double sx, final double sy,
+      final double ex, final double ey, final long time, final double s, final int col) {
+    if(col < 0) throw new IllegalArgumentException("unknown color: " + col);
+    final int i;
+    if(freeCount > 0) {
+      i = free[--freeCount];
+    } else {
+      if(high >= x.length) {
+        alloc(x.length * 2);
+      }
+      i = high++;
+    }
+    final Point2D ortho = VecUtil.getOrthoRight(new Point2D.Double(ex - sx, ey - sy));
+    startX[i] = sx;
+    startY[i] = sy;
+    ctrlX[i] = ex + ortho.getX() * Particle.bendRatio;
+    ctrlY[i] = ey + ortho.getY() * Particle.bendRatio;
+    endX[i] = ex;
+    endY[i] = ey;
+    start[i] = now;
+    duration[i] = Math.max(time, 1L);
+    x[i] = sx;
+    y[i] = sy;
+    prevX[i] = sx;
+    prevY[i] = sy;
+    size[i] = s;
+    color[i] = col;
+    ++active;
+  }
+
+  /**
+   * Scales the positions and paths of all particles. This is used when the
+   * resolution of the image changes.
+   * 
+   * @param sx The horizontal factor.
+   * @param sy The vertical factor.
+   */
+  public synchronized void scale(final double sx, final double sy) {
+    final double s = Math.sqrt(sx * sy);
+    for(int i = 0; i < high; ++i) {
+      x[i] *= sx;
+      y[i] *= sy;
+      prevX[i] *= sx;
+      prevY[i] *= sy;
+      startX[i] *= sx;
+      startY[i] *= sy;
+      ctrlX[i] *= sx;
+      ctrlY[i] *= sy;
+      endX[i] *= sx;
+      endY[i] *= sy;
+      size[i] *= s;
+    }
+  }
+
+  /** Removes all particles. */
+  public synchronized void clear() {
+    high = 0;
+    freeCount = 0;
+    active = 0;
+  }
+
+  /**
+   * Checks whether the path of a particle can enter the given rectangle. The
+   * path lies within the triangle of its start point, control point, and end
+   * point.
+   * 
+   * @param view The rectangle or <code>null</code> if every path is visible.
+   * @param sx The start x coordinate.
+   * @param sy The start y coordinate.
+   * @param ex The end x coordinate.
+   * @param ey The end y coordinate.
+   * @param s The size of the particle.
+   * @return Whether the particle may be visible at some point of its path.
+   */
+  public static boolean canEnter(final Rectangle2D view, final double sx,
+      final double sy, final double ex, final double ey, final double s) {
+    if(view == null) return true;
+    final Point2D ortho = VecUtil.getOrthoRight(new Point2D.Double(ex - sx, ey - sy));
+    final double cx = ex + ortho.getX() * Particle.bendRatio;
+    final double cy = ey + ortho.getY() * Particle.bendRatio;
+    final double minX = Math.min(sx, Math.min(cx, ex)) - s;
+    final double maxX = Math.max(sx, Math.max(cx, ex)) + s;
+    final double minY = Math.min(sy, Math.min(cy, ey)) - s;
+    final double maxY = Math.max(sy, Math.max(cy, ey)) + s;
+    return maxX >= view.getMinX() && minX <= view.getMaxX()
+        && maxY >= view.getMinY() && minY <= view.getMaxY();
+  }
+
+  @Override
+  public synchronized boolean animate(final long currentTime) {
+    now = currentTime;
+    final Interpolator ip = interpolate;
+    final boolean changed = active > 0;
+    for(int i = 0; i < high; ++i) {
+      if(color[i] == UNUSED) {
+        continue;
+      }
+      final long elapsed = currentTime - start[i];
+      if(elapsed >= duration[i]) {
+        color[i] = UNUSED;
+        free[freeCount++] = i;
+        --active;
+        continue;
+      }
+      final double t = ip.interpolate(elapsed <= 0L ? 0.0 : (double) elapsed / duration[i]);
+      // quadratic bezier curve
+      final double u = 1.0 - t;
+      final double a = u * u;
+      final double b = 2.0 * u * t;
+      final double c = t * t;
+      prevX[i] = x[i];
+      prevY[i] = y[i];
+      x[i] = a * startX[i] + b * ctrlX[i] + c * endX[i];
+      y[i] = a * startY[i] + b * ctrlY[i] + c * endY[i];
+    }
+    if(high > 2 * active) {
+      compact();
+    }
+    return changed;
+  }
+
+  /**
+   * Moves the particles at the end into the free slots. Afterwards exactly the
+   * slots below {@link #high} are in use and the free list is empty.
+   */
+  private void compact() {
+    int lo = 0;
+    int hi = high;
+    for(;;) {
+      while(lo < hi && color[lo] != UNUSED) {
+        ++lo;
+      }
+      while(hi > lo && color[hi - 1] == UNUSED) {
+        --hi;
+      }
+      if(lo >= hi) {
+        break;
+      }
+      move(hi - 1, lo);
+      --hi;
+      ++lo;
+    }
+    high = hi;
+    freeCount = 0;
+  }
+
+  /**
+   * Moves a particle into an unused slot. The old slot becomes unused.
+   * 
+   * @param from The slot of the particle.
+   * @param to The unused slot.
+   */
+  private void move(final int from, final int to) {
+    x[to] = x[from];
+    y[to] = y[from];
+    prevX[to] = prevX[from];
+    prevY[to] = prevY[from];
+    size[to] = size[from];
+    color[to] = color[from];
+    startX[to] = startX[from];
+    startY[to] = startY[from];
+    ctrlX[to] = ctrlX[from];
+    ctrlY[to] = ctrlY[from];
+    endX[to] = endX[from];
+    endY[to] = endY[from];
+    start[to] = start[from];
+    duration[to] = duration[from];
+    color[from] = UNUSED;
+  }
+
+}
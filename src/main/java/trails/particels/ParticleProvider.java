@@ -1,9 +1,8 @@
 package trails.particels;
 
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.Objects;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import jkanvas.animation.AnimationAction;
 import jkanvas.animation.AnimationTiming;
@@ -12,7 +11,8 @@ import jkanvas.util.Interpolator;
 import trails.routes.TimeSlicer;
 
 /**
- * Provides particles to animate. The particles are managed internally.
+ * Provides particles to animate. The particles are managed by the
+ * {@link ParticleEngine} of the render pass.
  * 
  * @author Joschi <josua.krause@gmail.com>
  */
@@ -22,8 +22,8 @@ public final class ParticleProvider {
   private final TrailRenderpass trails;
   /** The tick action. */
   private final AnimationAction tick;
-  /** The queue of unused particles. */
-  protected final Queue<PathParticle> unused;
+  /** The engine animating the particles. */
+  private final ParticleEngine engine;
   /** The duration of a slice. */
   private long sliceTime;
 
@@ -41,7 +41,7 @@ public final class ParticleProvider {
     Objects.requireNonNull(slicer);
     this.trails = Objects.requireNonNull(trails);
     this.sliceTime = sliceTime;
-    unused = new ConcurrentLinkedQueue<>();
+    engine = trails.getEngine();
     final ParticleProvider thiz = this;
     tick = new AnimationAction() {
 
@@ -49,7 +49,6 @@ public final class ParticleProvider {
       public void animationFinished() {
         final TrailRenderpass t = thiz.getTrailRenderpass();
         slicer.timeSlice(thiz, t.getWidth(), t.getHeight());
-        thiz.cleanUpUnused();
         animator.getAnimationList().scheduleAction(thiz.getTick(), thiz.getFor(1));
       }
 
@@ -57,60 +56,6 @@ public final class ParticleProvider {
     animator.getAnimationList().scheduleAction(tick, AnimationTiming.NO_ANIMATION);
   }
 
-  /**
-   * A path particle.
-   * 
-   * @author Joschi <josua.krause@gmail.com>
-   */
-  private class PathParticle extends Particle {
-
-    /** Whether this particle is currently in use. */
-    protected volatile boolean inUse;
-
-    /** Creates a path particle that is not in use. */
-    public PathParticle() {
-      super(Double.NaN, Double.NaN, Double.NaN, 0);
-      inUse = false;
-    }
-
-    /**
-     * Activates this particle and starts a path.
-     * 
-     * @param startX The start x coordinate.
-     * @param startY The start y coordinate.
-     * @param end The end position.
-     * @param slices How many slices the particle needs for its trip.
-     * @param size The size of the particle.
-     * @param color The color. {@link Particle#RED}, {@link Particle#GREEN}, or
-     *          {@link Particle#BLUE}.
-     */
-    public void startPath(final double startX, final double startY,
-        final Point2D end, final int slices, final double size, final int color) {
-      final PathParticle thiz = this;
-      inUse = true;
-      setSize(size);
-      setPosition(startX, startY);
-      setColor(color);
-      startAnimationTo(end, getFor(slices), new AnimationAction() {
-
-        @Override
-        public void animationFinished() {
-          inUse = false;
-          setPosition(Double.NaN, Double.NaN);
-          setSize(Double.NaN);
-          unused.add(thiz);
-        }
-
-      });
-    }
-
-    @Override
-    public boolean shouldDraw() {
-      return inUse && super.shouldDraw();
-    }
-
-  } // PathParticle
-
   /**
    * Getter.
    * 
@@ -129,16 +74,13 @@ public final class ParticleProvider {
     return trails;
   }
 
-  /** The interpolation. */
-  private Interpolator interpolate = Interpolator.QUAD_IN_OUT;
-
   /**
    * Setter.
    * 
    * @param interpolate Sets the interpolation.
    */
   public void setInterpolator(final Interpolator interpolate) {
-    this.interpolate = Objects.requireNonNull(interpolate);
+    engine.setInterpolator(interpolate);
   }
 
   /**
@@ -147,7 +89,7 @@ public final class ParticleProvider {
    * @return The interpolation.
    */
   public Interpolator getInterpolator() {
-    return interpolate;
+    return engine.getInterpolator();
   }
 
   /**
@@ -158,36 +100,17 @@ public final class ParticleProvider {
    */
   protected AnimationTiming getFor(final int slices) {
     // till end of the given slice
-    return new AnimationTiming(interpolate, (slices + 1) * sliceTime);
+    return new AnimationTiming(getInterpolator(), getDuration(slices));
   }
 
   /**
-   * Getter.
+   * Computes the duration of a path.
    * 
-   * @return An unused particle.
+   * @param slices The number of slices.
+   * @return The duration till the end of the given slice.
    */
-  private PathParticle getUnusedParticle() {
-    final PathParticle p = unused.poll();
-    if(p != null) return p;
-    final PathParticle n = new PathParticle();
-    trails.add(n);
-    return n;
-  }
-
-  /** The maximal number of particles to clean. */
-  private final int cleanLimit = 1000;
-
-  /** Clean up unused particles. */
-  protected void cleanUpUnused() {
-    int i = 0;
-    Particle p;
-    while((p = unused.poll()) != null) {
-      trails.remove(p);
-      if(++i >= cleanLimit) {
-        break;
-      }
-    }
-    System.out.println("cleaned " + i + " particles");
+  private long getDuration(final int slices) {
+    return (slices + 1) * sliceTime;
   }
 
   /**
@@ -209,6 +132,30 @@ public final class ParticleProvider {
     this.sliceTime = sliceTime;
   }
 
+  /** Discards all particles in flight. */
+  public void clear() {
+    engine.clear();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The visible part of the image or <code>null</code> if the whole
+   *         image is visible.
+   */
+  public Rectangle2D getViewport() {
+    return trails.getViewport();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of pixels of the image per pixel of the view.
+   */
+  public double getPixelScale() {
+    return trails.getPixelScale();
+  }
+
   /**
    * Start a path.
    * 
@@ -216,15 +163,34 @@ public final class ParticleProvider {
    * @param startY The y coordinate.
    * @param end The end position.
    * @param slices How many slices this trip takes.
-   * @param size The size of the particle.
+   * @param size The size of the particle in pixels of the view.
    * @param color The color. {@link Particle#RED}, {@link Particle#GREEN}, or
    *          {@link Particle#BLUE}.
    */
   public void startPath(final double startX, final double startY,
       final Point2D end, final int slices, final double size, final int color) {
-    Objects.requireNonNull(end);
-    final PathParticle p = getUnusedParticle();
-    p.startPath(startX, startY, end, slices, size, color);
+    startPath(startX, startY, end.getX(), end.getY(), slices, size, color);
+  }
+
+  /**
+   * Start a path. Paths that cannot enter the visible part of the image are
+   * skipped.
+   * 
+   * @param startX The start x coordinate.
+   * @param startY The start y coordinate.
+   * @param endX The end x coordinate.
+   * @param endY The end y coordinate.
+   * @param slices How many slices this trip takes.
+   * @param size The size of the particle in pixels of the view. The size is
+   *          scaled to the resolution of the image.
+   * @param color The color. {@link Particle#RED}, {@link Particle#GREEN}, or
+   *          {@link Particle#BLUE}.
+   */
+  public void startPath(final double startX, final double startY, final double endX,
+      final double endY, final int slices, final double size, final int color) {
+    final double s = size * getPixelScale();
+    if(!ParticleEngine.canEnter(getViewport(), startX, startY, endX, endY, s)) return;
+    engine.startPath(startX, startY, endX, endY, getDuration(slices), s, color);
   }
 
 }
@@ -0,0 +1,188 @@
+package trails.particels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders frames in parallel tiles. Particles are collected into a batch and
+ * binned to all tiles their sprite overlaps. Every tile is faded and splatted
+ * by its own task. Since tiles do not overlap no locking is needed. Within a
+ * tile particles are drawn in the order they were added.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+final class TileRenderer {
+
+  /** The width and height of a tile. */
+  public static final int TILE_SIZE = 128;
+  /** The pool shared by all tile renderers. */
+  private static final ForkJoinPool POOL = new ForkJoinPool();
+
+  /** The rasterizer. */
+  private final DiscRasterizer raster;
+  /** The number of tiles horizontally. */
+  private final int tilesX;
+  /** The number of tiles vertically. */
+  private final int tilesY;
+  /** The particle indices of every tile. */
+  private final int[][] bins;
+  /** The number of particles of every tile. */
+  private final int[] binSize;
+  /** The x coordinates of the batch. */
+  private double[] x = new double[1024];
+  /** The y coordinates of the batch. */
+  private double[] y = new double[1024];
+  /** The radii of the batch. */
+  private double[] r = new double[1024];
+  /** The colors of the batch. */
+  private int[] rgb = new int[1024];
+  /** The number of particles in the batch. */
+  private int count;
+
+  /**
+   * Creates a tile renderer.
+   * 
+   * @param raster The rasterizer.
+   */
+  public TileRenderer(final DiscRasterizer raster) {
+    this.raster = raster;
+    tilesX = (raster.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+    tilesY = (raster.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+    bins = new int[tilesX * tilesY][16];
+    binSize = new int[tilesX * tilesY];
+  }
+
+  /**
+   * Adds a particle to the batch.
+   * 
+   * @param px The x coordinate.
+   * @param py The y coordinate.
+   * @param pr The radius.
+   * @param color The RGB color.
+   */
+  public void add(final double px, final double py, final double pr, final int color) {
+    if(Double.isNaN(px) || Double.isNaN(py) || !(pr > 0)) return;
+    if(count >= x.length) {
+      final int size = x.length * 2;
+      x = Arrays.copyOf(x, size);
+      y = Arrays.copyOf(y, size);
+      r = Arrays.copyOf(r, size);
+      rgb = Arrays.copyOf(rgb, size);
+    }
+    x[count] = px;
+    y[count] = py;
+    r[count] = pr;
+    rgb[count] = color;
+    ++count;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of particles in the batch.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Fades the image and draws the batch as a density field. The batch is
+   * cleared afterwards.
+   * 
+   * @param density The density renderer.
+   * @param fade The remaining strength of the previous image.
+   * @param strength The opacity of the particles.
+   */
+  public void renderDensity(final DensityRenderer density,
+      final double fade, final float strength) {
+    raster.fade(fade);
+    density.render(x, y, r, rgb, count, strength);
+    count = 0;
+  }
+
+  /**
+   * Adds a particle index to a tile.
+   * 
+   * @param tile The tile.
+   * @param index The particle index.
+   */
+  private void bin(final int tile, final int index) {
+    final int size = binSize[tile];
+    if(size >= bins[tile].length) {
+      bins[tile] = Arrays.copyOf(bins[tile], size * 2);
+    }
+    bins[tile][size] = index;
+    binSize[tile] = size + 1;
+  }
+
+  /**
+   * Fades the image and draws the batch. The batch is cleared afterwards.
+   * 
+   * @param fade The remaining strength of the previous image.
+   * @param strength The opacity of the particles.
+   */
+  public void render(final double fade, final float strength) {
+    Arrays.fill(binSize, 0);
+    for(int i = 0; i < count; ++i) {
+      final int e = raster.getExtent(r[i]);
+      final int fx = Math.max((int) Math.floor(x[i]) - e, 0) / TILE_SIZE;
+      final int tx = Math.min((int) Math.floor(x[i]) + e, raster.getWidth() - 1) / TILE_SIZE;
+      final int fy = Math.max((int) Math.floor(y[i]) - e, 0) / TILE_SIZE;
+      final int ty = Math.min((int) Math.floor(y[i]) + e, raster.getHeight() - 1) / TILE_SIZE;
+      for(int ry = fy; ry <= ty; ++ry) {
+        for(int rx = fx; rx <= tx; ++rx) {
+          bin(ry * tilesX + rx, i);
+        }
+      }
+    }
+    final List<RecursiveAction> tasks = new ArrayList<>(bins.length);
+    for(int t = 0; t < bins.length; ++t) {
+      final int tile = t;
+      tasks.add(new RecursiveAction() {
+
+        @Override
+        protected void compute() {
+          renderTile(tile, fade, strength);
+        }
+
+      });
+    }
+    if(tasks.size() == 1) {
+      tasks.get(0).invoke();
+    } else {
+      POOL.invoke(new RecursiveAction() {
+
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+
+      });
+    }
+    count = 0;
+  }
+
+  /**
+   * Renders a single tile.
+   * 
+   * @param tile The tile.
+   * @param fade The remaining strength of the previous image.
+   * @param strength The opacity of the particles.
+   */
+  protected void renderTile(final int tile, final double fade, final float strength) {
+    final int x0 = (tile % tilesX) * TILE_SIZE;
+    final int y0 = (tile / tilesX) * TILE_SIZE;
+    final int x1 = x0 + TILE_SIZE;
+    final int y1 = y0 + TILE_SIZE;
+    raster.fade(fade, x0, y0, x1, y1);
+    final int[] bin = bins[tile];
+    for(int k = 0; k < binSize[tile]; ++k) {
+      final int i = bin[k];
+      raster.splat(x[i], y[i], r[i], rgb[i], strength, x0, y0, x1, y1);
+    }
+  }
+
+}
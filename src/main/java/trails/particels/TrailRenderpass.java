@@ -1,8 +1,9 @@
 package trails.particels;
 
-import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
 import java.awt.geom.RectangularShape;
 import java.awt.image.BufferedImage;
 import java.util.Objects;
@@ -14,9 +15,8 @@ import jkanvas.KanvasContext;
 import jkanvas.animation.Animated;
 import jkanvas.animation.Animator;
 import jkanvas.painter.Renderpass;
-import jkanvas.util.PaintUtil;
-import jkanvas.util.SnapshotList.Snapshot;
 import trails.Main;
+import trails.SimulationClock;
 
 /**
  * Renders trails.
@@ -29,38 +29,106 @@ public class TrailRenderpass extends Renderpass {
   public static float particleStrength = 0.97f;
   /** The fade between frames. */
   public static double fade = 0.95;
+  /** The number of particles from which on a density field is rendered. */
+  public static int densityThreshold = 30000;
+  /** The frame rate the level of detail and the resolution are adapted to. */
+  public static int targetFrameRate = 60;
+  /** Whether the resolution of the image follows the zoom and frame rate. */
+  public static boolean dynamicResolution = true;
 
-  /** The image. */
-  private final BufferedImage img;
+  /** The smallest resolution of the image relative to the view. */
+  private static final double MIN_SCALE = 0.25;
+  /** The largest resolution of the image relative to the view. */
+  private static final double MAX_SCALE = 4.0;
+  /** The minimal number of frames between two changes of the resolution. */
+  private static final int RESIZE_FRAMES = 30;
+
+  /** The width of the view. */
+  private final int viewWidth;
+  /** The height of the view. */
+  private final int viewHeight;
+  /** The image. Its resolution is the size of the view times the scale. */
+  private volatile BufferedImage img;
+  /** The tiles drawing into the image. */
+  private TileRenderer tiles;
+  /** The density field drawing into the image for many particles. */
+  private DensityRenderer density;
+  /** The resolution of the image relative to the view. */
+  private double scale = 1.0;
+  /** The fraction of the resolution of the screen the frame rate allows. */
+  private double quality = 1.0;
+  /** The average time to paint a frame in milliseconds. */
+  private double frameMillis;
+  /** The number of frames since the last change of the resolution. */
+  private int framesSinceResize;
+  /**
+   * The visible part of the image in pixels of the image or <code>null</code>
+   * if the whole image is visible.
+   */
+  private volatile Rectangle2D viewport;
   /** The animator that animates the particles. */
   private final Animator animator;
+  /** The clock of the simulation or <code>null</code> if it is in lock-step. */
+  private final SimulationClock clock;
   /** The private animated object that notifies a redraw. */
   private final Animated animated;
-  /** The list of particles. */
-  private final ParticleList<Particle> particles;
+  /** The engine animating the path particles. */
+  private final ParticleEngine engine;
   /** Whether a redraw is necessary. Value is larger than 0. */
   protected AtomicInteger ready;
   /** Whether the render pass is running. */
   protected volatile boolean running;
   /** Whether the last redraw has been finished. */
   protected volatile boolean finishedRedraw;
+  /** The simulation steps at the last painted frame. */
+  private double lastSteps;
+  /**
+   * The number of particles from which on a density field is rendered due to
+   * the frame budget.
+   */
+  private int densityLimit = Integer.MAX_VALUE;
 
   /**
-   * Creates a new trail render pass.
+   * Creates a new trail render pass that advances the particles with every
+   * frame of the animator.
    * 
    * @param animator The animator.
    * @param width The width of the image.
    * @param height The height of the image.
    */
   public TrailRenderpass(final Animator animator, final int width, final int height) {
-    this.animator = Objects.requireNonNull(animator);
+    this(animator, null, width, height);
+  }
+
+  /**
+   * Creates a new trail render pass. The particles are animated by the
+   * simulation clock while every frame of the painter interpolates between the
+   * last two states of the simulation. When painting a frame exceeds the
+   * budget of the {@link #targetFrameRate} the density field is used for fewer
+   * particles. The image starts with the size of the view.
+   * 
+   * @param painter The animator that draws the frames.
+   * @param clock The simulation clock or <code>null</code> if the particles
+   *          should be animated by the painter.
+   * @param width The width of the view.
+   * @param height The height of the view.
+   */
+  public TrailRenderpass(final Animator painter, final SimulationClock clock,
+      final int width, final int height) {
+    Objects.requireNonNull(painter);
+    this.clock = clock;
+    animator = clock != null ? clock : painter;
+    viewWidth = width;
+    viewHeight = height;
     img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
     ready = new AtomicInteger();
-    particles = new ParticleList<>();
+    engine = new ParticleEngine();
     final Graphics2D g = getGraphics();
     g.setColor(Color.BLACK);
     g.fillRect(0, 0, width, height);
     g.dispose();
+    tiles = new TileRenderer(new DiscRasterizer(img));
+    density = new DensityRenderer(img);
     // need to keep a reference so it will not be destroyed
     animated = new Animated() {
 
@@ -72,27 +140,18 @@ public class TrailRenderpass extends Renderpass {
       }
 
     };
-    animator.getAnimationList().addAnimated(animated);
+    painter.getAnimationList().addAnimated(animated);
+    animator.getAnimationList().addAnimated(engine);
     running = true;
   }
 
   /**
-   * Adds a particle.
-   * 
-   * @param p The particle.
-   */
-  public void add(final Particle p) {
-    animator.getAnimationList().addAnimated(p);
-    particles.add(p);
-  }
-
-  /**
-   * Removes a particle.
+   * Getter.
    * 
-   * @param p The particle.
+   * @return The engine animating the path particles.
    */
-  public void remove(final Particle p) {
-    particles.remove(p);
+  public ParticleEngine getEngine() {
+    return engine;
   }
 
   /** Signals that a redraw is necessary. */
@@ -132,18 +191,6 @@ public class TrailRenderpass extends Renderpass {
     finishedRedraw = false;
   }
 
-  /**
-   * Fades the image.
-   * 
-   * @param g The image.
-   * @param alpha The strength of the fade.
-   */
-  private void fade(final Graphics2D g, final double alpha) {
-    g.setColor(Color.BLACK);
-    PaintUtil.setAlpha(g, 1.0 - alpha);
-    g.fillRect(0, 0, getWidth(), getHeight());
-  }
-
   /**
    * Getter.
    * 
@@ -154,39 +201,24 @@ public class TrailRenderpass extends Renderpass {
   }
 
   /** Red particles. */
-  private static final Color RED = new Color(1f, 0.1f, 0.1f);
+  private static final int RED = new Color(1f, 0.1f, 0.1f).getRGB();
   /** Green particles. */
-  private static final Color GREEN = new Color(0.1f, 1f, 0.1f);
+  private static final int GREEN = new Color(0.1f, 1f, 0.1f).getRGB();
   /** Blue particles. */
-  private static final Color BLUE = new Color(0.1f, 0.1f, 1f);
+  private static final int BLUE = new Color(0.1f, 0.1f, 1f).getRGB();
 
-  /** Computes the next actual image. */
-  protected void stepImage() {
-    final Graphics2D g = getGraphics();
-    fade(g, fade);
-    g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_IN, particleStrength));
-    try (Snapshot<Particle> s = particles.getSnapshot()) {
-      for(final Particle p : s) {
-        if(p == null || !p.shouldDraw()) {
-          continue;
-        }
-        switch(p.getColor()) {
-          case Particle.RED:
-            g.setColor(RED);
-            break;
-          case Particle.GREEN:
-            g.setColor(GREEN);
-            break;
-          case Particle.BLUE:
-            g.setColor(BLUE);
-            break;
-          default:
-            throw new IllegalArgumentException("unknown color: " + p.getColor());
-        }
-        g.fill(PaintUtil.createCircle(p.getX(), p.getY(), p.getSize()));
-      }
-    }
-    g.dispose();
+  /**
+   * Computes the next actual image.
+   * 
+   * @param fading The fade since the last image.
+   * @param alpha The interpolation between the last two simulation states.
+   */
+  protected void stepImage(final double fading, final double alpha) {
+    final long start = System.nanoTime();
+    final int count = paintFrame(fading, alpha);
+    final double millis = (System.nanoTime() - start) / 1e6;
+    frameMillis += (millis - frameMillis) * 0.1;
+    adjustDetail(count, millis);
     if(!Main.VIDEO_MODE) {
       finishedRedraw = true;
       return;
@@ -206,27 +238,225 @@ public class TrailRenderpass extends Renderpass {
     });
   }
 
+  /**
+   * Computes the next image without displaying it. This is used to render
+   * frames off-screen.
+   * 
+   * @param pixels The array to store the ARGB pixels of the image in. May be
+   *          <code>null</code>.
+   * @return The pixels of the image in rows.
+   */
+  public int[] renderFrame(final int[] pixels) {
+    paintFrame(fade, 1.0);
+    final int w = getWidth();
+    final int h = getHeight();
+    return img.getRGB(0, 0, w, h, pixels, 0, w);
+  }
+
+  /**
+   * Adapts the level of detail to the time it took to paint the last frame.
+   * 
+   * @param count The number of particles of the last frame.
+   * @param millis The time in milliseconds.
+   */
+  private void adjustDetail(final int count, final double millis) {
+    final double budget = 1000.0 / targetFrameRate;
+    if(millis > budget) {
+      densityLimit = Math.max(Math.min(densityLimit, count) / 2, 1000);
+    } else if(millis < budget * 0.5 && densityLimit < Integer.MAX_VALUE / 2) {
+      densityLimit *= 2;
+    }
+  }
+
+  /**
+   * Adapts the resolution of the image to the zoom level and the average time
+   * to paint a frame. The image has one pixel per screen pixel when the frame
+   * rate allows it.
+   * 
+   * @param ctx The canvas context.
+   */
+  private void adaptResolution(final KanvasContext ctx) {
+    if(!dynamicResolution || ++framesSinceResize < RESIZE_FRAMES) return;
+    final double budget = 1000.0 / targetFrameRate;
+    if(frameMillis > budget) {
+      quality = Math.max(quality * 0.8, MIN_SCALE);
+    } else if(frameMillis < budget * 0.5) {
+      quality = Math.min(quality * 1.1, 1.0);
+    }
+    final double px = ctx.toCanvasLength(1.0);
+    final double zoom = px > 0.0 && !Double.isInfinite(px) ? 1.0 / px : 1.0;
+    final double s = Math.max(MIN_SCALE, Math.min(MAX_SCALE, zoom * quality));
+    if(Math.abs(s - scale) < scale * 0.1) return;
+    resize(s);
+  }
+
+  /**
+   * Computes the visible part of the image.
+   * 
+   * @param ctx The canvas context.
+   */
+  private void updateViewport(final KanvasContext ctx) {
+    final Rectangle2D visible = ctx.getVisibleCanvas();
+    if(visible == null || visible.contains(0, 0, viewWidth, viewHeight)) {
+      viewport = null;
+      return;
+    }
+    final BufferedImage cur = img;
+    final double sx = (double) cur.getWidth() / viewWidth;
+    final double sy = (double) cur.getHeight() / viewHeight;
+    viewport = new Rectangle2D.Double(visible.getX() * sx, visible.getY() * sy,
+        visible.getWidth() * sx, visible.getHeight() * sy);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The visible part of the image in pixels of the image or
+   *         <code>null</code> if the whole image is visible.
+   */
+  public Rectangle2D getViewport() {
+    return viewport;
+  }
+
+  /**
+   * Checks whether a particle is visible.
+   * 
+   * @param x The x coordinate.
+   * @param y The y coordinate.
+   * @param s The size.
+   * @return Whether the particle is within the visible part of the image.
+   */
+  boolean isVisible(final double x, final double y, final double s) {
+    final Rectangle2D view = viewport;
+    return view == null || (x + s >= view.getMinX() && x - s <= view.getMaxX()
+        && y + s >= view.getMinY() && y - s <= view.getMaxY());
+  }
+
+  /**
+   * Changes the resolution of the image. The current trails and the positions
+   * of the particles are scaled to the new resolution.
+   * 
+   * @param s The resolution relative to the view.
+   */
+  private void resize(final double s) {
+    final BufferedImage old = img;
+    final int w = Math.max((int) Math.round(viewWidth * s), 1);
+    final int h = Math.max((int) Math.round(viewHeight * s), 1);
+    scale = s;
+    framesSinceResize = 0;
+    if(w == old.getWidth() && h == old.getHeight()) return;
+    final BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    final Graphics2D g = next.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(old, 0, 0, w, h, null);
+    g.dispose();
+    engine.scale((double) w / old.getWidth(), (double) h / old.getHeight());
+    tiles = new TileRenderer(new DiscRasterizer(next));
+    density = new DensityRenderer(next);
+    img = next;
+  }
+
+  /**
+   * Fades the image and paints all particles. The pixels of the image are
+   * modified directly in parallel tiles. Beyond {@link #densityThreshold}
+   * particles the density field of the particles is painted instead.
+   * 
+   * @param fading The fade of the image.
+   * @param alpha The interpolation between the previous and the current
+   *          positions of the particles.
+   * @return The number of painted particles.
+   */
+  private int paintFrame(final double fading, final double alpha) {
+    synchronized(engine) {
+      final double[] x = engine.x;
+      final double[] y = engine.y;
+      final double[] px = engine.prevX;
+      final double[] py = engine.prevY;
+      final double[] size = engine.size;
+      final int[] color = engine.color;
+      for(int i = 0; i < engine.high; ++i) {
+        final int c = color[i];
+        if(c == ParticleEngine.UNUSED) {
+          continue;
+        }
+        final double cx = px[i] + (x[i] - px[i]) * alpha;
+        final double cy = py[i] + (y[i] - py[i]) * alpha;
+        if(!isVisible(cx, cy, size[i])) {
+          continue;
+        }
+        tiles.add(cx, cy, size[i], getColor(c));
+      }
+    }
+    final int count = tiles.size();
+    if(count >= Math.min(densityThreshold, densityLimit)) {
+      tiles.renderDensity(density, fading, particleStrength);
+    } else {
+      tiles.render(fading, particleStrength);
+    }
+    return count;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param color The color. {@link Particle#RED}, {@link Particle#GREEN}, or
+   *          {@link Particle#BLUE}.
+   * @return The RGB value.
+   */
+  private static int getColor(final int color) {
+    switch(color) {
+      case Particle.RED:
+        return RED;
+      case Particle.GREEN:
+        return GREEN;
+      case Particle.BLUE:
+        return BLUE;
+      default:
+        throw new IllegalArgumentException("unknown color: " + color);
+    }
+  }
+
   @Override
   public void draw(final Graphics2D g, final KanvasContext ctx) {
+    adaptResolution(ctx);
+    updateViewport(ctx);
     final int r = ready.getAndSet(0);
-    if(r > 0) {
+    if(clock != null) {
+      final double alpha = clock.getAlpha();
+      final double steps = clock.getSteps() - 1 + alpha;
+      if(running && steps > lastSteps) {
+        stepImage(Math.pow(fade, steps - lastSteps), alpha);
+        lastSteps = steps;
+      }
+    } else if(r > 0) {
       if(r > 1) {
         System.err.println(getClass().getName() + " skipped " + (r - 1) + " frames");
       }
-      stepImage();
+      stepImage(fade, 1.0);
+    }
+    final BufferedImage cur = img;
+    if(cur.getWidth() == viewWidth && cur.getHeight() == viewHeight) {
+      g.drawImage(cur, 0, 0, null);
+      return;
     }
-    g.drawImage(img, 0, 0, null);
+    final Graphics2D gfx = (Graphics2D) g.create();
+    gfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    gfx.drawImage(cur, 0, 0, viewWidth, viewHeight, null);
+    gfx.dispose();
   }
 
   @Override
   public void getBoundingBox(final RectangularShape bbox) {
-    bbox.setFrame(0, 0, getWidth(), getHeight());
+    bbox.setFrame(0, 0, viewWidth, viewHeight);
   }
 
   /**
    * Getter.
    * 
-   * @return The width of the image.
+   * @return The width of the image. Particles are positioned in pixels of the
+   *         image.
    */
   public int getWidth() {
     return img.getWidth();
@@ -235,10 +465,23 @@ public class TrailRenderpass extends Renderpass {
   /**
    * Getter.
    * 
-   * @return The height of the image.
+   * @return The height of the image. Particles are positioned in pixels of
+   *         the image.
    */
   public int getHeight() {
     return img.getHeight();
   }
 
+  /**
+   * Getter.
+   * 
+   * @return The number of pixels of the image per pixel of the view. Sizes of
+   *         particles are scaled by this factor, as in
+   *         {@link ParticleEngine#scale(double, double)}.
+   */
+  public double getPixelScale() {
+    final BufferedImage cur = img;
+    return Math.sqrt((double) cur.getWidth() / viewWidth * cur.getHeight() / viewHeight);
+  }
+
 }
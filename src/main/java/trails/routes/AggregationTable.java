@@ -0,0 +1,323 @@
+package trails.routes;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table counting trips with the same start position,
+ * end position, duration in slices, and vehicle. The table is meant to be
+ * reused. Clearing keeps all arrays so that no allocation happens once the
+ * table has grown to the typical size of a slice. Entries are accessed by
+ * their insertion index. Trips can also be put into bins that ignore the
+ * duration. The duration of such a bin is the mean duration of its trips.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class AggregationTable {
+
+  /** The initial number of entries. */
+  private static final int INITIAL_SIZE = 1024;
+
+  /** The slots containing the entry index plus one or zero if empty. */
+  private int[] slots;
+  /** The slot of every entry. */
+  private int[] slotOf;
+  /** The start x coordinates. */
+  private double[] fromX;
+  /** The start y coordinates. */
+  private double[] fromY;
+  /** The end x coordinates. */
+  private double[] toX;
+  /** The end y coordinates. */
+  private double[] toY;
+  /** The durations in slices or <code>-1</code> for bins. */
+  private int[] slices;
+  /** The sum of the durations of all counted trips. */
+  private long[] sliceSum;
+  /** The vehicles. */
+  private long[] vehicle;
+  /** The counts. */
+  private int[] count;
+  /** The number of entries. */
+  private int size;
+
+  /** Creates an empty table. */
+  public AggregationTable() {
+    slots = new int[INITIAL_SIZE * 2];
+    allocEntries(INITIAL_SIZE);
+  }
+
+  /**
+   * Resizes the entry arrays.
+   * 
+   * @param capacity The new capacity.
+   */
+  private void allocEntries(final int capacity) {
+    slotOf = fromX == null ? new int[capacity] : Arrays.copyOf(slotOf, capacity);
+    fromX = fromX == null ? new double[capacity] : Arrays.copyOf(fromX, capacity);
+    fromY = fromY == null ? new double[capacity] : Arrays.copyOf(fromY, capacity);
+    toX = toX == null ? new double[capacity] : Arrays.copyOf(toX, capacity);
+    toY = toY == null ? new double[capacity] : Arrays.copyOf(toY, capacity);
+    slices = slices == null ? new int[capacity] : Arrays.copyOf(slices, capacity);
+    sliceSum = sliceSum == null ? new long[capacity] : Arrays.copyOf(sliceSum, capacity);
+    vehicle = vehicle == null ? new long[capacity] : Arrays.copyOf(vehicle, capacity);
+    count = count == null ? new int[capacity] : Arrays.copyOf(count, capacity);
+  }
+
+  /**
+   * Mixes the bits of a value.
+   * 
+   * @param h The current hash.
+   * @param v The value.
+   * @return The new hash.
+   */
+  private static long mix(final long h, final long v) {
+    long x = (h ^ v) * 0x9E3779B97F4A7C15L;
+    x ^= x >>> 32;
+    return x;
+  }
+
+  /**
+   * Computes the hash of a key.
+   * 
+   * @param fx The start x coordinate.
+   * @param fy The start y coordinate.
+   * @param tx The end x coordinate.
+   * @param ty The end y coordinate.
+   * @param s The duration in slices.
+   * @param v The vehicle.
+   * @return The hash.
+   */
+  private static int hash(final double fx, final double fy,
+      final double tx, final double ty, final int s, final long v) {
+    long h = mix(0L, Double.doubleToLongBits(fx));
+    h = mix(h, Double.doubleToLongBits(fy));
+    h = mix(h, Double.doubleToLongBits(tx));
+    h = mix(h, Double.doubleToLongBits(ty));
+    h = mix(h, s);
+    h = mix(h, v);
+    return (int) (h ^ (h >>> 29));
+  }
+
+  /**
+   * Whether the entry has the given key.
+   * 
+   * @param e The entry.
+   * @param fx The start x coordinate.
+   * @param fy The start y coordinate.
+   * @param tx The end x coordinate.
+   * @param ty The end y coordinate.
+   * @param s The duration in slices.
+   * @param v The vehicle.
+   * @return Whether the entry matches.
+   */
+  private boolean matches(final int e, final double fx, final double fy,
+      final double tx, final double ty, final int s, final long v) {
+    return slices[e] == s && vehicle[e] == v
+        && Double.doubleToLongBits(fromX[e]) == Double.doubleToLongBits(fx)
+        && Double.doubleToLongBits(fromY[e]) == Double.doubleToLongBits(fy)
+        && Double.doubleToLongBits(toX[e]) == Double.doubleToLongBits(tx)
+        && Double.doubleToLongBits(toY[e]) == Double.doubleToLongBits(ty);
+  }
+
+  /**
+   * Counts a trip.
+   * 
+   * @param fx The start x coordinate.
+   * @param fy The start y coordinate.
+   * @param tx The end x coordinate.
+   * @param ty The end y coordinate.
+   * @param s The duration in slices.
+   * @param v The vehicle.
+   */
+  public void add(final double fx, final double fy,
+      final double tx, final double ty, final int s, final long v) {
+    add(fx, fy, tx, ty, s, v, 1);
+  }
+
+  /**
+   * Counts a number of trips.
+   * 
+   * @param fx The start x coordinate.
+   * @param fy The start y coordinate.
+   * @param tx The end x coordinate.
+   * @param ty The end y coordinate.
+   * @param s The duration in slices.
+   * @param v The vehicle.
+   * @param num The number of trips.
+   */
+  public void add(final double fx, final double fy,
+      final double tx, final double ty, final int s, final long v, final int num) {
+    insert(fx, fy, tx, ty, s, v, num, s);
+  }
+
+  /**
+   * Counts a number of trips into a bin. Trips with different durations end
+   * up in the same bin.
+   * 
+   * @param fx The start x coordinate of the bin.
+   * @param fy The start y coordinate of the bin.
+   * @param tx The end x coordinate of the bin.
+   * @param ty The end y coordinate of the bin.
+   * @param s The duration in slices of the trips.
+   * @param v The vehicle.
+   * @param num The number of trips.
+   */
+  public void bin(final double fx, final double fy,
+      final double tx, final double ty, final int s, final long v, final int num) {
+    insert(fx, fy, tx, ty, -1, v, num, s);
+  }
+
+  /**
+   * Counts a number of trips.
+   * 
+   * @param fx The start x coordinate.
+   * @param fy The start y coordinate.
+   * @param tx The end x coordinate.
+   * @param ty The end y coordinate.
+   * @param key The duration that is part of the key.
+   * @param v The vehicle.
+   * @param num The number of trips.
+   * @param s The actual duration in slices.
+   */
+  private void insert(final double fx, final double fy, final double tx,
+      final double ty, final int key, final long v, final int num, final int s) {
+    final int mask = slots.length - 1;
+    int pos = hash(fx, fy, tx, ty, key, v) & mask;
+    for(;;) {
+      final int e = slots[pos] - 1;
+      if(e < 0) {
+        break;
+      }
+      if(matches(e, fx, fy, tx, ty, key, v)) {
+        count[e] += num;
+        sliceSum[e] += (long) s * num;
+        return;
+      }
+      pos = (pos + 1) & mask;
+    }
+    if(size >= fromX.length) {
+      allocEntries(fromX.length * 2);
+    }
+    final int e = size++;
+    fromX[e] = fx;
+    fromY[e] = fy;
+    toX[e] = tx;
+    toY[e] = ty;
+    slices[e] = key;
+    sliceSum[e] = (long) s * num;
+    vehicle[e] = v;
+    count[e] = num;
+    slotOf[e] = pos;
+    slots[pos] = e + 1;
+    if(size * 2 > slots.length) {
+      rehash(slots.length * 2);
+    }
+  }
+
+  /**
+   * Rebuilds the slots.
+   * 
+   * @param capacity The new number of slots. Must be a power of two.
+   */
+  private void rehash(final int capacity) {
+    slots = new int[capacity];
+    final int mask = capacity - 1;
+    for(int e = 0; e < size; ++e) {
+      int pos = hash(fromX[e], fromY[e], toX[e], toY[e], slices[e], vehicle[e]) & mask;
+      while(slots[pos] != 0) {
+        pos = (pos + 1) & mask;
+      }
+      slots[pos] = e + 1;
+      slotOf[e] = pos;
+    }
+  }
+
+  /** Removes all entries while keeping the allocated memory. */
+  public void clear() {
+    for(int e = 0; e < size; ++e) {
+      slots[slotOf[e]] = 0;
+    }
+    size = 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of distinct entries.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The start x coordinate.
+   */
+  public double getFromX(final int e) {
+    return fromX[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The start y coordinate.
+   */
+  public double getFromY(final int e) {
+    return fromY[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The end x coordinate.
+   */
+  public double getToX(final int e) {
+    return toX[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The end y coordinate.
+   */
+  public double getToY(final int e) {
+    return toY[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The duration in slices. For bins this is the mean duration.
+   */
+  public int getSlices(final int e) {
+    if(slices[e] >= 0) return slices[e];
+    return (int) Math.round((double) sliceSum[e] / count[e]);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The vehicle.
+   */
+  public long getVehicle(final int e) {
+    return vehicle[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The number of trips.
+   */
+  public int getCount(final int e) {
+    return count[e];
+  }
+
+}
@@ -0,0 +1,185 @@
+package trails.routes;
+
+import java.io.IOException;
+
+import trails.io.TripManager;
+
+/**
+ * Precomputed trip counts per vehicle over the whole data set at the levels
+ * of minutes, hours, days, and weeks. All levels start at the same week
+ * aligned origin. Each level is summed up from the level below so the store
+ * is only counted once.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class CountPyramid {
+
+  /** One minute. */
+  private static final long MINUTE = 60L * 1000L;
+  /** The lengths of the buckets of all levels. */
+  private static final long[] STEPS = {
+    MINUTE, 60L * MINUTE, 24L * 60L * MINUTE, 7L * 24L * 60L * MINUTE,
+  };
+  /** The maximal number of buckets of the finest level. */
+  private static final int MAX_BUCKETS = 1 << 21;
+  /** The number of buckets counted in one request to the store. */
+  private static final int CHUNK = 1 << 16;
+
+  /** The start of the first bucket of every level. */
+  private final long origin;
+  /** The first level that has been computed. */
+  private final int base;
+  /** The counts indexed by level, vehicle, and bucket. */
+  private final int[][][] counts;
+
+  /**
+   * Creates a pyramid.
+   * 
+   * @param origin The start of the first bucket of every level.
+   * @param base The first level that has been computed.
+   * @param counts The counts indexed by level, vehicle, and bucket.
+   */
+  private CountPyramid(final long origin, final int base, final int[][][] counts) {
+    this.origin = origin;
+    this.base = base;
+    this.counts = counts;
+  }
+
+  /**
+   * Counts the trips of the store. Levels that would need too many buckets
+   * are left out.
+   * 
+   * @param mng The store.
+   * @return The pyramid.
+   * @throws IOException I/O Exception.
+   */
+  public static CountPyramid build(final TripManager mng) throws IOException {
+    final long start = mng.getStartTime();
+    final long end = mng.getEndTime();
+    final long week = STEPS[STEPS.length - 1];
+    final long origin = start - ((start % week) + week) % week;
+    int base = 0;
+    while(base < STEPS.length - 1 && buckets(origin, end, STEPS[base]) > MAX_BUCKETS) {
+      ++base;
+    }
+    final int[][][] counts = new int[STEPS.length][][];
+    final int n = (int) buckets(origin, end, STEPS[base]);
+    final int[][] first = new int[2][n];
+    for(int from = 0; from < n; from += CHUNK) {
+      final int slots = Math.min(CHUNK, n - from);
+      final long step = STEPS[base];
+      final int[][] c = mng.countHistogram(origin + from * step, step, 0L, step, slots);
+      System.arraycopy(c[0], 0, first[0], from, slots);
+      System.arraycopy(c[1], 0, first[1], from, slots);
+    }
+    counts[base] = first;
+    for(int level = base + 1; level < STEPS.length; ++level) {
+      final int ratio = (int) (STEPS[level] / STEPS[level - 1]);
+      final int[][] below = counts[level - 1];
+      final int[][] cur = new int[2][(below[0].length + ratio - 1) / ratio];
+      for(int v = 0; v < 2; ++v) {
+        for(int i = 0; i < below[v].length; ++i) {
+          cur[v][i / ratio] += below[v][i];
+        }
+      }
+      counts[level] = cur;
+    }
+    return new CountPyramid(origin, base, counts);
+  }
+
+  /**
+   * Computes the number of buckets.
+   * 
+   * @param origin The start of the first bucket.
+   * @param end The last time that has to be covered.
+   * @param step The length of a bucket.
+   * @return The number of buckets.
+   */
+  private static long buckets(final long origin, final long end, final long step) {
+    return end < origin ? 0L : (end - origin) / step + 1L;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start of the first bucket of every level.
+   */
+  public long getOrigin() {
+    return origin;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The end of the last bucket of the coarsest level.
+   */
+  public long getEnd() {
+    final int top = STEPS.length - 1;
+    return origin + counts[top][0].length * STEPS[top];
+  }
+
+  /**
+   * Chooses the finest level that covers the given span with at most the
+   * given number of buckets.
+   * 
+   * @param span The time span.
+   * @param maxBuckets The maximal number of buckets.
+   * @return The level or the coarsest level if none is coarse enough.
+   */
+  public int chooseLevel(final long span, final int maxBuckets) {
+    for(int level = base; level < STEPS.length; ++level) {
+      if(span / STEPS[level] <= maxBuckets) return level;
+    }
+    return STEPS.length - 1;
+  }
+
+  /**
+   * Computes the counts of a time span for columns. The level is chosen so
+   * that at most as many buckets as columns are read. Every column shows the
+   * bucket at its center. Only when even the coarsest level has more buckets
+   * than columns the buckets are summed up per column.
+   * 
+   * @param from The start of the span inclusive.
+   * @param to The end of the span exclusive.
+   * @param columns The number of columns.
+   * @return The counts indexed by vehicle (<code>0</code> and <code>1</code>)
+   *         and column.
+   */
+  public int[][] columns(final long from, final long to, final int columns) {
+    final int[][] res = new int[2][columns];
+    if(to <= from || columns <= 0) return res;
+    final int level = chooseLevel(to - from, columns);
+    final long step = STEPS[level];
+    final int[][] c = counts[level];
+    final long span = to - from;
+    if(span / step <= columns) {
+      for(int col = 0; col < columns; ++col) {
+        final long t = from + (2L * col + 1L) * span / (2L * columns) - origin;
+        if(t < 0L) {
+          continue;
+        }
+        final long i = t / step;
+        if(i >= c[0].length) {
+          break;
+        }
+        res[0][col] = c[0][(int) i];
+        res[1][col] = c[1][(int) i];
+      }
+      return res;
+    }
+    final int first = (int) Math.max((from - origin) / step, 0L);
+    final int last = (int) Math.min((to - origin + step - 1L) / step, c[0].length);
+    for(int i = first; i < last; ++i) {
+      final long t = origin + i * step;
+      final long mid = t + step / 2L - from;
+      if(mid < 0L || mid >= span) {
+        continue;
+      }
+      final int col = (int) (mid * columns / span);
+      res[0][col] += c[0][i];
+      res[1][col] += c[1][i];
+    }
+    return res;
+  }
+
+}
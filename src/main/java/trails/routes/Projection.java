@@ -0,0 +1,146 @@
+package trails.routes;
+
+import java.io.IOException;
+
+import trails.io.TripManager;
+
+/**
+ * Projects geo coordinates onto the image. The bounds are taken from the trip
+ * manager and default to New York when unknown. Latitudes are either mapped
+ * linearly or with the Web Mercator projection.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class Projection {
+
+  /** The leftmost longitude coordinate. */
+  private final double left;
+  /** The rightmost longitude coordinate. */
+  private final double right;
+  /** The bottom latitude coordinate. */
+  private final double bottom;
+  /** The top latitude coordinate. */
+  private final double top;
+  /** Whether to use the Web Mercator projection. */
+  private final boolean mercator;
+  /** The projected bottom coordinate. */
+  private final double projBottom;
+  /** The projected top coordinate. */
+  private final double projTop;
+
+  /**
+   * Creates a linear projection for the bounds of the given trips.
+   * 
+   * @param mng The trip manager.
+   * @throws IOException I/O Exception.
+   */
+  public Projection(final TripManager mng) throws IOException {
+    this(mng, false);
+  }
+
+  /**
+   * Creates a projection for the bounds of the given trips.
+   * 
+   * @param mng The trip manager.
+   * @param mercator Whether to use the Web Mercator projection.
+   * @throws IOException I/O Exception.
+   */
+  public Projection(final TripManager mng, final boolean mercator) throws IOException {
+    final double l = mng.getMinLon();
+    left = Double.isNaN(l) ? -74.099464 : l;
+    final double r = mng.getMaxLon();
+    right = Double.isNaN(r) ? -73.760262 : r;
+    final double b = mng.getMinLat();
+    bottom = Double.isNaN(b) ? 40.532589 : b;
+    final double t = mng.getMaxLat();
+    top = Double.isNaN(t) ? 40.862122 : t;
+    this.mercator = mercator;
+    projBottom = project(bottom);
+    projTop = project(top);
+  }
+
+  /**
+   * Projects a latitude.
+   * 
+   * @param lat The latitude.
+   * @return The latitude or its Web Mercator projection.
+   */
+  private double project(final double lat) {
+    if(!mercator) return lat;
+    return Math.log(Math.tan(Math.PI / 4.0 + Math.toRadians(lat) / 2.0));
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the Web Mercator projection is used.
+   */
+  public boolean isMercator() {
+    return mercator;
+  }
+
+  /**
+   * Converts longitude into a x coordinate.
+   * 
+   * @param lon The longitude.
+   * @param width The display width.
+   * @return The x coordinate.
+   */
+  public double getX(final double lon, final int width) {
+    return (lon - left) / (right - left) * width;
+  }
+
+  /**
+   * Converts Latitude into a y coordinate.
+   * 
+   * @param lat The latitude.
+   * @param height The display height.
+   * @return The y coordinate.
+   */
+  public double getY(final double lat, final int height) {
+    return (project(lat) - projTop) / (projBottom - projTop) * height;
+  }
+
+  /**
+   * Converts longitudes into x coordinates.
+   * 
+   * @param lon The longitudes.
+   * @param x The array to store the x coordinates.
+   * @param num The number of coordinates.
+   * @param width The display width.
+   */
+  public void getX(final double[] lon, final float[] x, final int num, final int width) {
+    final double scale = width / (right - left);
+    for(int i = 0; i < num; ++i) {
+      x[i] = (float) ((lon[i] - left) * scale);
+    }
+  }
+
+  /**
+   * Converts latitudes into y coordinates.
+   * 
+   * @param lat The latitudes.
+   * @param y The array to store the y coordinates.
+   * @param num The number of coordinates.
+   * @param height The display height.
+   */
+  public void getY(final double[] lat, final float[] y, final int num, final int height) {
+    final double scale = height / (projBottom - projTop);
+    if(mercator) {
+      for(int i = 0; i < num; ++i) {
+        y[i] = (float) ((project(lat[i]) - projTop) * scale);
+      }
+      return;
+    }
+    for(int i = 0; i < num; ++i) {
+      y[i] = (float) ((lat[i] - projTop) * scale);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "lon: " + left + " lat: " + top + " lon: " + right + " lat: " + bottom
+        + (mercator ? " mercator" : "");
+  }
+
+}
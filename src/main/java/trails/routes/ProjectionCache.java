@@ -0,0 +1,172 @@
+package trails.routes;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import trails.io.Trip;
+
+/**
+ * Caches the screen coordinates of trips. Trips with an index are projected
+ * only once. The cache holds the coordinates for an image of size one which
+ * get scaled to the actual size of the image so resizing keeps the cache.
+ * Coordinates are computed in bulk for all trips that are not cached yet. The
+ * cache is not thread safe.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class ProjectionCache {
+
+  /** The number of bits of the index within a chunk. */
+  private static final int CHUNK_BITS = 14;
+  /** The number of trips in a chunk. */
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  /** The maximal number of cached chunks (roughly 1M trips or 16MB). */
+  private static final int MAX_CHUNKS = 64;
+
+  /** The projection. */
+  private final Projection proj;
+  /**
+   * The chunks of cached coordinates. Each trip has four consecutive values.
+   * Missing values are <code>NaN</code>.
+   */
+  private final Map<Long, float[]> chunks = new LinkedHashMap<Long, float[]>(16, 0.75f, true) {
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<Long, float[]> eldest) {
+      return size() > MAX_CHUNKS;
+    }
+
+  };
+  /** The positions of the trips that are not cached. */
+  private int[] miss = new int[0];
+  /** The start longitudes of the trips that are not cached. */
+  private double[] pLon = new double[0];
+  /** The start latitudes of the trips that are not cached. */
+  private double[] pLat = new double[0];
+  /** The end longitudes of the trips that are not cached. */
+  private double[] dLon = new double[0];
+  /** The end latitudes of the trips that are not cached. */
+  private double[] dLat = new double[0];
+  /** The projected start x coordinates. */
+  private float[] px = new float[0];
+  /** The projected start y coordinates. */
+  private float[] py = new float[0];
+  /** The projected end x coordinates. */
+  private float[] dx = new float[0];
+  /** The projected end y coordinates. */
+  private float[] dy = new float[0];
+
+  /**
+   * Creates an empty cache.
+   * 
+   * @param proj The projection.
+   */
+  public ProjectionCache(final Projection proj) {
+    this.proj = Objects.requireNonNull(proj);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The projection.
+   */
+  public Projection getProjection() {
+    return proj;
+  }
+
+  /**
+   * Ensures that the scratch arrays can hold the given number of trips.
+   * 
+   * @param num The number of trips.
+   */
+  private void ensureScratch(final int num) {
+    if(miss.length >= num) return;
+    final int size = Math.max(num, miss.length * 2);
+    miss = new int[size];
+    pLon = new double[size];
+    pLat = new double[size];
+    dLon = new double[size];
+    dLat = new double[size];
+    px = new float[size];
+    py = new float[size];
+    dx = new float[size];
+    dy = new float[size];
+  }
+
+  /**
+   * Projects trips. The coordinates of trip <code>k</code> are stored at
+   * <code>4 * k</code> in the order start x, start y, end x, and end y.
+   * 
+   * @param trips The trips.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param out The array to reuse if it is large enough. May be
+   *          <code>null</code>.
+   * @return The array containing the coordinates.
+   */
+  public float[] project(final List<Trip> trips,
+      final int width, final int height, final float[] out) {
+    final float w = width;
+    final float h = height;
+    final int num = trips.size();
+    final float[] res = out != null && out.length >= num * 4 ? out : new float[num * 4];
+    ensureScratch(num);
+    int misses = 0;
+    for(int k = 0; k < num; ++k) {
+      final Trip t = trips.get(k);
+      final long index = t.getIndex();
+      if(index >= 0) {
+        final float[] chunk = chunks.get(index >>> CHUNK_BITS);
+        final int pos = (int) (index & (CHUNK_SIZE - 1)) * 4;
+        if(chunk != null && !Float.isNaN(chunk[pos])) {
+          final int off = k * 4;
+          res[off] = chunk[pos] * w;
+          res[off + 1] = chunk[pos + 1] * h;
+          res[off + 2] = chunk[pos + 2] * w;
+          res[off + 3] = chunk[pos + 3] * h;
+          continue;
+        }
+      }
+      miss[misses] = k;
+      pLon[misses] = t.getPickupLon();
+      pLat[misses] = t.getPickupLat();
+      dLon[misses] = t.getDropoffLon();
+      dLat[misses] = t.getDropoffLat();
+      ++misses;
+    }
+    if(misses == 0) return res;
+    proj.getX(pLon, px, misses, 1);
+    proj.getY(pLat, py, misses, 1);
+    proj.getX(dLon, dx, misses, 1);
+    proj.getY(dLat, dy, misses, 1);
+    for(int m = 0; m < misses; ++m) {
+      final int k = miss[m];
+      final int off = k * 4;
+      res[off] = px[m] * w;
+      res[off + 1] = py[m] * h;
+      res[off + 2] = dx[m] * w;
+      res[off + 3] = dy[m] * h;
+      final long index = trips.get(k).getIndex();
+      if(index < 0) {
+        continue;
+      }
+      final Long key = index >>> CHUNK_BITS;
+      float[] chunk = chunks.get(key);
+      if(chunk == null) {
+        chunk = new float[CHUNK_SIZE * 4];
+        Arrays.fill(chunk, Float.NaN);
+        chunks.put(key, chunk);
+      }
+      final int pos = (int) (index & (CHUNK_SIZE - 1)) * 4;
+      chunk[pos] = px[m];
+      chunk[pos + 1] = py[m];
+      chunk[pos + 2] = dx[m];
+      chunk[pos + 3] = dy[m];
+    }
+    return res;
+  }
+
+}
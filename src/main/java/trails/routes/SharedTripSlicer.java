@@ -0,0 +1,360 @@
+package trails.routes;
+
+import java.io.IOException;
+import java.sql.Date;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+
+import trails.io.Trip;
+import trails.io.TripManager;
+import trails.particels.Particle;
+import trails.particels.ParticleProvider;
+
+/**
+ * Slices trips for multiple windows with one scan. All windows share the
+ * length of a slice and the current time but have their own interval within
+ * the slice. Each slice reads the union of the intervals once and
+ * distributes the trips to the windows. Every window can drive its own
+ * particle provider and render pass.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public class SharedTripSlicer {
+
+  /**
+   * The trips of one window in one slice.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  private static final class Slice {
+
+    /** The start time of the slice. */
+    final long time;
+    /** The trips of the window. */
+    final List<Trip> trips;
+
+    /**
+     * Creates a slice.
+     * 
+     * @param time The start time of the slice.
+     * @param trips The trips of the window.
+     */
+    Slice(final long time, final List<Trip> trips) {
+      this.time = time;
+      this.trips = trips;
+    }
+
+  } // Slice
+
+  /**
+   * A window of the shared slicer.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  public final class Window extends TimeSlicer {
+
+    /** The slices that have been scanned but not spawned yet. */
+    final Queue<Slice> pending = new ArrayDeque<>();
+    /** The reused table aggregating the trips of a slice. */
+    final AggregationTable journeys = new AggregationTable();
+
+    @Override
+    public void timeSlice(final ParticleProvider provider, final int width, final int height) {
+      spawn(this, provider, width, height);
+    }
+
+    /**
+     * {@inheritDoc} The length of a slice is shared between all windows of
+     * the slicer.
+     */
+    @Override
+    public void setTimeSlice(final long timeSlice) {
+      setSharedTimeSlice(timeSlice);
+    }
+
+    /**
+     * Sets the length of a slice of only this window.
+     * 
+     * @param timeSlice The size of a slice.
+     */
+    void setOwnTimeSlice(final long timeSlice) {
+      super.setTimeSlice(timeSlice);
+    }
+
+    @Override
+    protected void onChange() {
+      restart();
+    }
+
+    /**
+     * Checks whether the given offset into a slice is within the window.
+     * 
+     * @param offset The offset.
+     * @return Whether the offset is in the interval of the window.
+     */
+    boolean contains(final long offset) {
+      return offset >= getIntervalFrom() && offset < getIntervalTo();
+    }
+
+    /**
+     * Exposes the computation of the number of slices.
+     * 
+     * @param from The start.
+     * @param to The end.
+     * @return How many slices this span includes.
+     */
+    int slicesOf(final long from, final long to) {
+      return getNumberOfSlices(from, to);
+    }
+
+  } // Window
+
+  /** The maximal number of slices a window can lag behind. */
+  private static final int MAX_PENDING = 16;
+
+  /** The underlying trip manager. */
+  private final TripManager mng;
+  /** The cached projection onto the image. */
+  private final ProjectionCache cache;
+  /** The reused array of projected coordinates. */
+  private float[] coords;
+  /** The windows. */
+  private final List<Window> windows = new ArrayList<>();
+  /** The size of the time slice of all windows. */
+  private long timeSlice = 1L * 24L * 60L * 60L * 1000L; // 1d
+  /** The time of the next slice to scan. */
+  private long curTime;
+  /** The index hint of the next slice to scan. */
+  private long curIndex;
+  /** The start time of the first slice. All slices are aligned to it. */
+  private final long origin;
+
+  /**
+   * Creates a shared slicer without windows.
+   * 
+   * @param mng The trip manager.
+   * @param initTime The initial start time offset.
+   * @throws IOException I/O Exception.
+   */
+  public SharedTripSlicer(final TripManager mng, final long initTime) throws IOException {
+    this.mng = Objects.requireNonNull(mng);
+    cache = new ProjectionCache(new Projection(mng));
+    curTime = mng.getStartTime() + initTime;
+    curIndex = -1L;
+    origin = curTime;
+  }
+
+  /**
+   * Adds a window. The window starts with the next scanned slice.
+   * 
+   * @return The window.
+   */
+  public synchronized Window addWindow() {
+    final Window w = new Window();
+    w.setOwnTimeSlice(timeSlice);
+    windows.add(w);
+    return w;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The windows.
+   */
+  public synchronized List<Window> getWindows() {
+    return Collections.unmodifiableList(new ArrayList<>(windows));
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param timeSlice The size of a slice for all windows.
+   */
+  public synchronized void setSharedTimeSlice(final long timeSlice) {
+    this.timeSlice = Math.max(timeSlice, 1000L);
+    for(final Window w : windows) {
+      w.setOwnTimeSlice(this.timeSlice);
+    }
+    restart();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The size of a slice for all windows.
+   */
+  public synchronized long getSharedTimeSlice() {
+    return timeSlice;
+  }
+
+  /**
+   * Discards all pending slices since they were scanned with outdated
+   * settings. Scanning continues with the earliest slice that has not been
+   * spawned by all windows.
+   */
+  synchronized void restart() {
+    long time = curTime;
+    for(final Window w : windows) {
+      final Slice s = w.pending.peek();
+      if(s != null && s.time < time) {
+        time = s.time;
+      }
+      w.pending.clear();
+    }
+    if(time != curTime) {
+      curTime = time;
+      // searches the index by time
+      curIndex = -1L;
+    }
+  }
+
+  /**
+   * Computes the first slice containing the start of the data that is aligned
+   * with the first slice. Wrapping around to this slice keeps the alignment,
+   * for example to weekdays.
+   * 
+   * @return The start time of the slice.
+   * @throws IOException I/O Exception.
+   */
+  private long firstSlice() throws IOException {
+    final long start = mng.getStartTime();
+    return start - mod(start - origin, timeSlice);
+  }
+
+  /**
+   * Computes the non-negative remainder.
+   * 
+   * @param a The dividend.
+   * @param b The positive divisor.
+   * @return The remainder.
+   */
+  private static long mod(final long a, final long b) {
+    return ((a % b) + b) % b;
+  }
+
+  /**
+   * Scans the next slice and distributes its trips to all windows. Empty
+   * slices are skipped when {@link TripSlicer#isSkippingGaps()} is set. The
+   * scan gives up after a full cycle without trips and hands out an empty
+   * slice instead.
+   * 
+   * @throws IOException I/O Exception.
+   */
+  private void scan() throws IOException {
+    long from = Long.MAX_VALUE;
+    long to = Long.MIN_VALUE;
+    for(final Window w : windows) {
+      from = Math.min(from, w.getIntervalFrom());
+      to = Math.max(to, w.getIntervalTo());
+    }
+    final boolean skip = TripSlicer.isSkippingGaps();
+    final long startTime = curTime;
+    boolean wrapped = false;
+    for(;;) {
+      boolean noTrips = false;
+      if(skip) {
+        long next = mng.nextTripTimeAtOrAfter(curTime, from, to, timeSlice);
+        if(next < 0 || next > mng.getEndTime()) {
+          next = mng.nextTripTimeAtOrAfter(firstSlice(), from, to, timeSlice);
+          if(next >= 0) {
+            wrapped = true;
+            System.out.println("full cycle!");
+          }
+        }
+        if(next < 0) {
+          noTrips = true;
+        } else if(next != curTime) {
+          curTime = next;
+          curIndex = -1L;
+        }
+      }
+      final long time = curTime;
+      final List<Trip> list = mng.read(curIndex, time + from, time + to);
+      final List<List<Trip>> parts = new ArrayList<>(windows.size());
+      for(int i = 0; i < windows.size(); ++i) {
+        parts.add(new ArrayList<Trip>());
+      }
+      for(final Trip t : list) {
+        final long offset = t.getPickupTime() - time;
+        for(int i = 0; i < windows.size(); ++i) {
+          if(windows.get(i).contains(offset)) {
+            parts.get(i).add(t);
+          }
+        }
+      }
+      if(!list.isEmpty()) {
+        curIndex = list.get(list.size() - 1).getIndex() + 1L;
+      }
+      curTime = time + timeSlice;
+      if(curTime > mng.getEndTime()) {
+        curTime = firstSlice();
+        curIndex = 0L;
+        wrapped = true;
+        System.out.println("full cycle!");
+      }
+      System.out.println("trips: " + list.size() + " in " + windows.size() + " windows");
+      if(skip && list.isEmpty() && !noTrips && !(wrapped && curTime >= startTime)) {
+        continue;
+      }
+      for(int i = 0; i < windows.size(); ++i) {
+        final Queue<Slice> pending = windows.get(i).pending;
+        if(pending.size() >= MAX_PENDING) {
+          pending.poll();
+        }
+        pending.add(new Slice(time, parts.get(i)));
+      }
+      return;
+    }
+  }
+
+  /**
+   * Spawns the next slice of a window. A new slice is scanned for all windows
+   * when the window has no pending slices.
+   * 
+   * @param w The window.
+   * @param provider The particle provider of the window.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   */
+  synchronized void spawn(final Window w, final ParticleProvider provider,
+      final int width, final int height) {
+    final Slice s;
+    try {
+      if(w.pending.isEmpty()) {
+        scan();
+      }
+      s = w.pending.poll();
+    } catch(final IOException io) {
+      throw new IllegalStateException(io);
+    }
+    final AggregationTable journeys = w.journeys;
+    coords = cache.project(s.trips, width, height, coords);
+    journeys.clear();
+    for(int k = 0; k < s.trips.size(); ++k) {
+      final Trip t = s.trips.get(k);
+      final int off = k * 4;
+      journeys.add(coords[off], coords[off + 1], coords[off + 2], coords[off + 3],
+          w.slicesOf(s.time, t.getDropoffTime()), t.getVehicle());
+    }
+    final int threshold = w.getThreshold();
+    for(int e = 0; e < journeys.size(); ++e) {
+      final int num = journeys.getCount(e);
+      if(num < threshold) {
+        continue;
+      }
+      final int col = journeys.getVehicle(e) == 0 ? Particle.RED : Particle.BLUE;
+      provider.startPath(journeys.getFromX(e), journeys.getFromY(e),
+          journeys.getToX(e), journeys.getToY(e),
+          journeys.getSlices(e), Math.log(num) + 1.0, col);
+    }
+    final SimpleDateFormat fmt = new SimpleDateFormat("YYYY-MM-dd E HH:mm:ss ");
+    w.setInfoText(fmt.format(new Date(s.time + w.getIntervalFrom())),
+        fmt.format(new Date(s.time + w.getIntervalTo())));
+  }
+
+}
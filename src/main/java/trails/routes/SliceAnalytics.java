@@ -0,0 +1,482 @@
+package trails.routes;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import trails.Main;
+import trails.io.Trip;
+import trails.io.TripManager;
+
+/**
+ * Computes statistics of every slice of the whole data set without animating
+ * it. The slices are split across a fork join pool. Each slice is read and
+ * aggregated like in the animation but origins and destinations are binned
+ * into cells of longitude and latitude instead of screen positions.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class SliceAnalytics {
+
+  /**
+   * The statistics of a slice.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  public static final class Statistics {
+
+    /** The start time of the slice. */
+    final long time;
+    /** The number of trips of both vehicles. */
+    final int[] trips = new int[2];
+    /** The sum of the durations of all trips. */
+    long durationSum;
+    /** The number of trips of all vehicles. */
+    int total;
+    /** The vehicles of the most frequent pairs in descending order. */
+    long[] pairVehicle;
+    /** The cell centers of the pairs, four values per pair. */
+    double[] pairCells;
+    /** The number of trips of the pairs. */
+    int[] pairTrips;
+    /** The mean duration of the pairs in minutes. */
+    int[] pairMinutes;
+
+    /**
+     * Creates empty statistics.
+     * 
+     * @param time The start time of the slice.
+     */
+    Statistics(final long time) {
+      this.time = time;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The start time of the slice.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param vehicle The vehicle (<code>0</code> or <code>1</code>).
+     * @return The number of trips of the vehicle.
+     */
+    public int getTrips(final int vehicle) {
+      return trips[vehicle];
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The mean duration of the trips in milliseconds or
+     *         <code>0</code> if there are no trips.
+     */
+    public long getMeanDuration() {
+      return total == 0 ? 0L : durationSum / total;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @return The number of the most frequent pairs.
+     */
+    public int getPairCount() {
+      return pairTrips.length;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param rank The rank of the pair.
+     * @return The vehicle of the pair.
+     */
+    public long getPairVehicle(final int rank) {
+      return pairVehicle[rank];
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param rank The rank of the pair.
+     * @return The coordinates of the centers of the origin cell and the
+     *         destination cell as longitude, latitude, longitude, latitude.
+     */
+    public double[] getPairCells(final int rank) {
+      return Arrays.copyOfRange(pairCells, rank * 4, rank * 4 + 4);
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param rank The rank of the pair.
+     * @return The number of trips of the pair.
+     */
+    public int getPairTrips(final int rank) {
+      return pairTrips[rank];
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param rank The rank of the pair.
+     * @return The mean duration of the trips of the pair in minutes.
+     */
+    public int getPairMinutes(final int rank) {
+      return pairMinutes[rank];
+    }
+
+  } // Statistics
+
+  /** The default size of the cells for origins and destinations in degrees. */
+  public static final double DEFAULT_CELL_SIZE = 0.01;
+  /** The default number of most frequent pairs per slice. */
+  public static final int DEFAULT_TOP_PAIRS = 10;
+  /** The number of slices computed by one task. */
+  private static final int SLICES_PER_TASK = 4;
+
+  /** The store. */
+  private final TripManager mng;
+  /** The length of a slice. */
+  private final long timeSlice;
+  /** The start of the interval within a slice. */
+  private final long from;
+  /** The end of the interval within a slice. */
+  private final long to;
+  /** The size of the cells for origins and destinations in degrees. */
+  private final double cellSize;
+  /** The number of most frequent pairs per slice. */
+  private final int topPairs;
+
+  /**
+   * Creates an analysis.
+   * 
+   * @param mng The store. The store must support concurrent reads.
+   * @param timeSlice The length of a slice.
+   * @param from The start of the interval within a slice inclusive.
+   * @param to The end of the interval within a slice exclusive.
+   * @param cellSize The size of the cells for origins and destinations in
+   *          degrees.
+   * @param topPairs The number of most frequent pairs per slice.
+   */
+  public SliceAnalytics(final TripManager mng, final long timeSlice,
+      final long from, final long to, final double cellSize, final int topPairs) {
+    if(timeSlice <= 0L) throw new IllegalArgumentException("" + timeSlice);
+    if(from < 0L || to <= from || to > timeSlice) throw new IllegalArgumentException(
+        "invalid interval: " + from + " " + to);
+    if(!(cellSize > 0.0)) throw new IllegalArgumentException("" + cellSize);
+    if(topPairs < 0) throw new IllegalArgumentException("" + topPairs);
+    this.mng = Objects.requireNonNull(mng);
+    this.timeSlice = timeSlice;
+    this.from = from;
+    this.to = to;
+    this.cellSize = cellSize;
+    this.topPairs = topPairs;
+  }
+
+  /**
+   * Creates an analysis with the default cells and pairs.
+   * 
+   * @param mng The store. The store must support concurrent reads.
+   * @param timeSlice The length of a slice.
+   * @param from The start of the interval within a slice inclusive.
+   * @param to The end of the interval within a slice exclusive.
+   */
+  public SliceAnalytics(final TripManager mng, final long timeSlice,
+      final long from, final long to) {
+    this(mng, timeSlice, from, to, DEFAULT_CELL_SIZE, DEFAULT_TOP_PAIRS);
+  }
+
+  /**
+   * Creates an analysis with the settings of a slicer.
+   * 
+   * @param mng The store. The store must support concurrent reads.
+   * @param slicer The slicer.
+   */
+  public SliceAnalytics(final TripManager mng, final TimeSlicer slicer) {
+    this(mng, slicer.getTimeSlice(), slicer.getIntervalFrom(), slicer.getIntervalTo());
+  }
+
+  /**
+   * Computes the statistics of all slices from the start of the data set.
+   * 
+   * @param pool The pool.
+   * @return The statistics in order of the slices.
+   * @throws IOException I/O Exception.
+   */
+  public Statistics[] compute(final ForkJoinPool pool) throws IOException {
+    final long start = mng.getStartTime();
+    final long end = mng.getEndTime();
+    final long n = end < start ? 0L : (end - start) / timeSlice + 1L;
+    if(n > Integer.MAX_VALUE) throw new IllegalArgumentException("too many slices: " + n);
+    final Statistics[] res = new Statistics[(int) n];
+    try {
+      pool.invoke(new Task(res, start, 0, res.length));
+    } catch(final IllegalStateException e) {
+      // the pool may wrap the exception of another thread once more
+      Throwable cause = e.getCause();
+      while(cause != null) {
+        if(cause instanceof IOException) throw (IOException) cause;
+        cause = cause.getCause();
+      }
+      throw e;
+    }
+    return res;
+  }
+
+  /**
+   * Computes the statistics of a range of slices.
+   * 
+   * @author Joschi <josua.krause@gmail.com>
+   */
+  private final class Task extends RecursiveAction {
+
+    /** The serial version UID. */
+    private static final long serialVersionUID = -1392574893472913947L;
+    /** The results. */
+    private final Statistics[] res;
+    /** The start time of the first slice of the data set. */
+    private final long start;
+    /** The first slice inclusive. */
+    private final int lo;
+    /** The last slice exclusive. */
+    private final int hi;
+
+    /**
+     * Creates a task.
+     * 
+     * @param res The results.
+     * @param start The start time of the first slice of the data set.
+     * @param lo The first slice inclusive.
+     * @param hi The last slice exclusive.
+     */
+    Task(final Statistics[] res, final long start, final int lo, final int hi) {
+      this.res = res;
+      this.start = start;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo > SLICES_PER_TASK) {
+        final int mid = (lo + hi) >>> 1;
+        invokeAll(new Task(res, start, lo, mid), new Task(res, start, mid, hi));
+        return;
+      }
+      final AggregationTable pairs = new AggregationTable();
+      try {
+        for(int s = lo; s < hi; ++s) {
+          res[s] = slice(start + s * timeSlice, pairs);
+        }
+      } catch(final IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+  } // Task
+
+  /**
+   * Computes the center of a cell.
+   * 
+   * @param v The coordinate.
+   * @return The center of the cell.
+   */
+  private double cell(final double v) {
+    return (Math.floor(v / cellSize) + 0.5) * cellSize;
+  }
+
+  /**
+   * Computes the statistics of a slice.
+   * 
+   * @param time The start time of the slice.
+   * @param pairs The table to aggregate the pairs in.
+   * @return The statistics.
+   * @throws IOException I/O Exception.
+   */
+  Statistics slice(final long time, final AggregationTable pairs) throws IOException {
+    final Statistics st = new Statistics(time);
+    final List<Trip> list = mng.read(-1L, time + from, time + to);
+    pairs.clear();
+    for(final Trip t : list) {
+      final long v = t.getVehicle();
+      if(v == 0L || v == 1L) {
+        ++st.trips[(int) v];
+      }
+      final long duration = t.getDropoffTime() - t.getPickupTime();
+      st.durationSum += duration;
+      ++st.total;
+      pairs.bin(cell(t.getPickupLon()), cell(t.getPickupLat()),
+          cell(t.getDropoffLon()), cell(t.getDropoffLat()),
+          (int) (duration / 60000L), v, 1);
+    }
+    final int[] top = top(pairs, topPairs);
+    st.pairVehicle = new long[top.length];
+    st.pairCells = new double[top.length * 4];
+    st.pairTrips = new int[top.length];
+    st.pairMinutes = new int[top.length];
+    for(int r = 0; r < top.length; ++r) {
+      final int e = top[r];
+      st.pairVehicle[r] = pairs.getVehicle(e);
+      st.pairCells[r * 4] = pairs.getFromX(e);
+      st.pairCells[r * 4 + 1] = pairs.getFromY(e);
+      st.pairCells[r * 4 + 2] = pairs.getToX(e);
+      st.pairCells[r * 4 + 3] = pairs.getToY(e);
+      st.pairTrips[r] = pairs.getCount(e);
+      st.pairMinutes[r] = pairs.getSlices(e);
+    }
+    return st;
+  }
+
+  /**
+   * Finds the most frequent entries of a table.
+   * 
+   * @param table The table.
+   * @param k The number of entries.
+   * @return The entries in descending order of their count.
+   */
+  private static int[] top(final AggregationTable table, final int k) {
+    final int[] res = new int[Math.min(k, table.size())];
+    int size = 0;
+    for(int e = 0; e < table.size(); ++e) {
+      final int c = table.getCount(e);
+      if(size == res.length && (size == 0 || table.getCount(res[size - 1]) >= c)) {
+        continue;
+      }
+      int pos = size < res.length ? size++ : size - 1;
+      while(pos > 0 && table.getCount(res[pos - 1]) < c) {
+        res[pos] = res[pos - 1];
+        --pos;
+      }
+      res[pos] = e;
+    }
+    return res;
+  }
+
+  /**
+   * Writes the statistics per slice as CSV.
+   * 
+   * @param stats The statistics.
+   * @param out The output. The output is not closed.
+   */
+  public static void writeSlicesCSV(final Statistics[] stats, final Writer out) {
+    final PrintWriter o = new PrintWriter(out);
+    final SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    o.println("time,date,trips_0,trips_1,mean_duration_ms");
+    for(final Statistics st : stats) {
+      o.println(st.getTime() + "," + fmt.format(new Date(st.getTime())) + ","
+          + st.getTrips(0) + "," + st.getTrips(1) + "," + st.getMeanDuration());
+    }
+    o.flush();
+  }
+
+  /**
+   * Writes the most frequent pairs of every slice as CSV.
+   * 
+   * @param stats The statistics.
+   * @param out The output. The output is not closed.
+   */
+  public static void writePairsCSV(final Statistics[] stats, final Writer out) {
+    final PrintWriter o = new PrintWriter(out);
+    o.println("time,rank,vehicle,from_lon,from_lat,to_lon,to_lat,trips,mean_duration_min");
+    for(final Statistics st : stats) {
+      for(int r = 0; r < st.getPairCount(); ++r) {
+        final double[] c = st.getPairCells(r);
+        o.println(st.getTime() + "," + r + "," + st.getPairVehicle(r) + ","
+            + c[0] + "," + c[1] + "," + c[2] + "," + c[3] + ","
+            + st.getPairTrips(r) + "," + st.getPairMinutes(r));
+      }
+    }
+    o.flush();
+  }
+
+  /**
+   * Writes all statistics in binary. Every slice is written as its start
+   * time, the trips of both vehicles, the mean duration, the number of pairs,
+   * and per pair its vehicle, the four cell coordinates, its trips, and its
+   * mean duration in minutes.
+   * 
+   * @param stats The statistics.
+   * @param out The output. The output is not closed.
+   * @throws IOException I/O Exception.
+   */
+  public static void writeBinary(final Statistics[] stats, final OutputStream out)
+      throws IOException {
+    final DataOutputStream o = new DataOutputStream(out);
+    o.writeInt(stats.length);
+    for(final Statistics st : stats) {
+      o.writeLong(st.getTime());
+      o.writeInt(st.getTrips(0));
+      o.writeInt(st.getTrips(1));
+      o.writeLong(st.getMeanDuration());
+      o.writeInt(st.getPairCount());
+      for(int r = 0; r < st.getPairCount(); ++r) {
+        o.writeLong(st.getPairVehicle(r));
+        for(final double c : st.getPairCells(r)) {
+          o.writeDouble(c);
+        }
+        o.writeInt(st.getPairTrips(r));
+        o.writeInt(st.getPairMinutes(r));
+      }
+    }
+    o.flush();
+  }
+
+  /**
+   * Computes the statistics of the configured source.
+   * 
+   * @param args The output directory, the length of a slice in days, and
+   *          optionally <code>bin</code> to write binary instead of CSV.
+   * @throws Exception Exception.
+   */
+  public static void main(final String[] args) throws Exception {
+    final File dir = new File(args.length > 0 ? args[0] : "stats/");
+    final long days = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+    final boolean bin = args.length > 2 && "bin".equals(args[2]);
+    if(!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+    final long slice = days * 24L * 60L * 60L * 1000L;
+    final ForkJoinPool pool = new ForkJoinPool();
+    try (TripManager mng = Main.openTripManager()) {
+      final long start = System.currentTimeMillis();
+      final Statistics[] stats = new SliceAnalytics(mng, slice, 0L, slice).compute(pool);
+      System.out.println(stats.length + " slices in "
+          + (System.currentTimeMillis() - start) + "ms");
+      if(bin) {
+        final File f = new File(dir, "slices.bin");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+          writeBinary(stats, out);
+        }
+        System.out.println("saved " + f);
+      } else {
+        final File s = new File(dir, "slices.csv");
+        try (PrintWriter out = new PrintWriter(s, "UTF-8")) {
+          writeSlicesCSV(stats, out);
+        }
+        final File p = new File(dir, "pairs.csv");
+        try (PrintWriter out = new PrintWriter(p, "UTF-8")) {
+          writePairsCSV(stats, out);
+        }
+        System.out.println("saved " + s + " and " + p);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+}
@@ -0,0 +1,223 @@
+package trails.routes;
+
+/**
+ * The particles to spawn for a slice. The list is prepared ahead of time and
+ * is immutable afterwards.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class SliceSpawns {
+
+  /** The start x coordinates. */
+  private final double[] fromX;
+  /** The start y coordinates. */
+  private final double[] fromY;
+  /** The end x coordinates. */
+  private final double[] toX;
+  /** The end y coordinates. */
+  private final double[] toY;
+  /** The durations in slices. */
+  private final int[] slices;
+  /** The vehicles. */
+  private final long[] vehicle;
+  /** The number of aggregated trips. */
+  private final int[] count;
+  /** The generation of the settings the slice was prepared for. */
+  private final long generation;
+  /** The width of the image. */
+  private final int width;
+  /** The height of the image. */
+  private final int height;
+  /** The start of the interval. */
+  private final long startInterval;
+  /** The end of the interval. */
+  private final long endInterval;
+  /** The time of the next slice. */
+  private final long nextTime;
+  /** The index hint for the next slice. */
+  private final long nextIndex;
+
+  /**
+   * Creates a spawn list from the aggregated trips.
+   * 
+   * @param table The aggregated trips.
+   * @param generation The generation of the settings.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @param startInterval The start of the interval.
+   * @param endInterval The end of the interval.
+   * @param nextTime The time of the next slice.
+   * @param nextIndex The index hint for the next slice.
+   */
+  public SliceSpawns(final AggregationTable table, final long generation,
+      final int width, final int height, final long startInterval,
+      final long endInterval, final long nextTime, final long nextIndex) {
+    final int size = table.size();
+    fromX = new double[size];
+    fromY = new double[size];
+    toX = new double[size];
+    toY = new double[size];
+    slices = new int[size];
+    vehicle = new long[size];
+    count = new int[size];
+    for(int e = 0; e < size; ++e) {
+      fromX[e] = table.getFromX(e);
+      fromY[e] = table.getFromY(e);
+      toX[e] = table.getToX(e);
+      toY[e] = table.getToY(e);
+      slices[e] = table.getSlices(e);
+      vehicle[e] = table.getVehicle(e);
+      count[e] = table.getCount(e);
+    }
+    this.generation = generation;
+    this.width = width;
+    this.height = height;
+    this.startInterval = startInterval;
+    this.endInterval = endInterval;
+    this.nextTime = nextTime;
+    this.nextIndex = nextIndex;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of entries.
+   */
+  public int size() {
+    return count.length;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The start x coordinate.
+   */
+  public double getFromX(final int e) {
+    return fromX[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The start y coordinate.
+   */
+  public double getFromY(final int e) {
+    return fromY[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The end x coordinate.
+   */
+  public double getToX(final int e) {
+    return toX[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The end y coordinate.
+   */
+  public double getToY(final int e) {
+    return toY[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The duration in slices.
+   */
+  public int getSlices(final int e) {
+    return slices[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The vehicle.
+   */
+  public long getVehicle(final int e) {
+    return vehicle[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param e The entry index.
+   * @return The number of aggregated trips.
+   */
+  public int getCount(final int e) {
+    return count[e];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The generation of the settings the slice was prepared for.
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The width of the image.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The height of the image.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start of the interval.
+   */
+  public long getStartInterval() {
+    return startInterval;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The end of the interval.
+   */
+  public long getEndInterval() {
+    return endInterval;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The time of the next slice.
+   */
+  public long getNextTime() {
+    return nextTime;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The index hint for the next slice.
+   */
+  public long getNextIndex() {
+    return nextIndex;
+  }
+
+}
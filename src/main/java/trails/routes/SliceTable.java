@@ -0,0 +1,158 @@
+package trails.routes;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import trails.io.IndexedTripManager;
+
+/**
+ * Maps slices to the range of indices of their trips in a sorted store. The
+ * table is valid for fixed slice settings and covers the slices aligned to an
+ * origin up to the end of the store.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ */
+public final class SliceTable {
+
+  /** The maximal number of slices in a table. */
+  public static final int MAX_SLICES = 1 << 22;
+
+  /** The start time of the first slice. */
+  private final long origin;
+  /** The length of a slice. */
+  private final long step;
+  /** The generation of the settings the table was built for. */
+  private final long generation;
+  /** The first index of every slice inclusive. */
+  private final long[] first;
+  /** The last index of every slice exclusive. */
+  private final long[] last;
+
+  /**
+   * Creates a table.
+   * 
+   * @param origin The start time of the first slice.
+   * @param step The length of a slice.
+   * @param generation The generation of the settings.
+   * @param first The first index of every slice inclusive.
+   * @param last The last index of every slice exclusive.
+   */
+  private SliceTable(final long origin, final long step, final long generation,
+      final long[] first, final long[] last) {
+    this.origin = origin;
+    this.step = step;
+    this.generation = generation;
+    this.first = first;
+    this.last = last;
+  }
+
+  /**
+   * Builds a table. The origin is the earliest slice that is aligned with the
+   * given time.
+   * 
+   * @param mng The sorted store.
+   * @param time The time of a slice.
+   * @param step The length of a slice.
+   * @param from The start of the interval within a slice inclusive.
+   * @param to The end of the interval within a slice exclusive.
+   * @param generation The current generation of the settings.
+   * @param gen The generation of the settings the table is built for.
+   * @return The table or <code>null</code> if the settings changed in the
+   *         meantime or there are too many slices.
+   * @throws IOException I/O Exception.
+   */
+  public static SliceTable build(final IndexedTripManager mng, final long time,
+      final long step, final long from, final long to,
+      final AtomicLong generation, final long gen) throws IOException {
+    final long start = mng.getStartTime();
+    final long end = mng.getEndTime();
+    final long origin = time - Math.max(time - start, 0L) / step * step;
+    final long slices = end < origin ? 0L : (end - origin) / step + 1L;
+    if(slices > MAX_SLICES) return null;
+    final long[] first = new long[(int) slices];
+    final long[] last = new long[(int) slices];
+    for(int s = 0; s < slices; ++s) {
+      if(generation.get() != gen) return null;
+      final long t = origin + s * step;
+      first[s] = mng.indexOf(t + from);
+      last[s] = mng.indexOf(t + to);
+    }
+    return new SliceTable(origin, step, gen, first, last);
+  }
+
+  /**
+   * Creates a table with the same slices for another generation of the
+   * settings. This is used when the settings did not change the slices.
+   * 
+   * @param gen The generation.
+   * @return The table sharing the slices with this table.
+   */
+  public SliceTable withGeneration(final long gen) {
+    return new SliceTable(origin, step, gen, first, last);
+  }
+
+  /**
+   * Finds the slice starting at the given time.
+   * 
+   * @param time The start time of the slice.
+   * @return The slice or <code>-1</code> if the time is not covered by the
+   *         table.
+   */
+  public int slice(final long time) {
+    if(time < origin) return -1;
+    final long off = time - origin;
+    if(off % step != 0) return -1;
+    final long s = off / step;
+    return s < first.length ? (int) s : -1;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param slice The slice.
+   * @return The first index of the slice inclusive.
+   */
+  public long getFirstIndex(final int slice) {
+    return first[slice];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param slice The slice.
+   * @return The last index of the slice exclusive.
+   */
+  public long getLastIndex(final int slice) {
+    return last[slice];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param slice The slice.
+   * @return The number of trips in the slice. The index ranges never include
+   *         invalid trips since the store sorts them after all valid trips.
+   */
+  public int count(final int slice) {
+    return (int) (last[slice] - first[slice]);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of slices.
+   */
+  public int size() {
+    return first.length;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The generation of the settings the table was built for.
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+}
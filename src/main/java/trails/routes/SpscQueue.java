@@ -0,0 +1,85 @@
+package trails.routes;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue for exactly one producer thread and one consumer
+ * thread.
+ * 
+ * @author Joschi <josua.krause@gmail.com>
+ * @param <T> The element type.
+ */
+public final class SpscQueue<T> {
+
+  /** The ring buffer. */
+  private final Object[] ring;
+  /** The mask for the ring buffer positions. */
+  private final int mask;
+  /** The position of the next element to read. Only written by the consumer. */
+  private final AtomicLong head = new AtomicLong();
+  /** The position of the next element to write. Only written by the producer. */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * Creates a queue.
+   * 
+   * @param capacity The capacity. Must be a power of two.
+   */
+  public SpscQueue(final int capacity) {
+    if(capacity <= 0 || Integer.bitCount(capacity) != 1) throw new IllegalArgumentException(
+        "capacity must be a power of two: " + capacity);
+    ring = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  /**
+   * Adds an element. Must only be called by the producer.
+   * 
+   * @param el The element.
+   * @return Whether the element was added. This is not the case when the
+   *         queue is full.
+   */
+  public boolean offer(final T el) {
+    if(el == null) throw new NullPointerException();
+    final long t = tail.get();
+    if(t - head.get() >= ring.length) return false;
+    ring[(int) t & mask] = el;
+    tail.lazySet(t + 1L);
+    return true;
+  }
+
+  /**
+   * Removes the first element. Must only be called by the consumer.
+   * 
+   * @return The first element or <code>null</code> if the queue is empty.
+   */
+  public T poll() {
+    final long h = head.get();
+    if(h >= tail.get()) return null;
+    final int pos = (int) h & mask;
+    @SuppressWarnings("unchecked")
+    final T el = (T) ring[pos];
+    ring[pos] = null;
+    head.lazySet(h + 1L);
+    return el;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the queue is full.
+   */
+  public boolean isFull() {
+    return tail.get() - head.get() >= ring.length;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the queue is empty.
+   */
+  public boolean isEmpty() {
+    return tail.get() <= head.get();
+  }
+
+}
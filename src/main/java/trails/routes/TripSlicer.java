@@ -1,23 +1,32 @@
 package trails.routes;
 
-import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.sql.Date;
 import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import trails.BarChartRenderpass;
+import trails.BarChartRenderpass.Slots;
+import trails.io.IndexedTripManager;
 import trails.io.Trip;
 import trails.io.TripManager;
 import trails.particels.Particle;
+import trails.particels.ParticleEngine;
 import trails.particels.ParticleProvider;
 
 /**
- * Slices trips into time frames.
+ * Slices trips into time frames. Slices are read, aggregated, and projected
+ * ahead of time on a separate thread so that spawning a slice only needs to
+ * copy the prepared particles. Dense slices are binned into screen space
+ * grid cells so that the number of particles stays within a budget. Empty
+ * slices are skipped with a single lookup. Trips that cannot become visible
+ * in the viewport of the provider are dropped before aggregation. The slicer
+ * can {@link #seek(long) seek} to any time.
  * 
  * @author Joschi <josua.krause@gmail.com>
  */
@@ -25,10 +34,14 @@ public class TripSlicer extends TimeSlicer {
 
   /** The underlying trip manager. */
   private final TripManager mng;
-  /** The current time. */
-  private long curTime;
-  /** The current index. */
-  private long curIndex;
+  /** The time of the next slice to spawn. */
+  private volatile long curTime;
+  /** The index hint of the next slice to spawn. */
+  private volatile long curIndex;
+  /** Guards changes of the position of the next slice to spawn. */
+  private final Object cursorLock = new Object();
+  /** Whether the particles in flight should be discarded. */
+  private volatile boolean discard;
   /** The bar chart. */
   protected final BarChartRenderpass bc;
 
@@ -47,64 +60,98 @@ public class TripSlicer extends TimeSlicer {
     this.mng = Objects.requireNonNull(mng);
     curTime = mng.getStartTime() + initTime;
     curIndex = 0L;
-    final double l = mng.getMinLon();
-    left = Double.isNaN(l) ? -74.099464 : l;
-    final double r = mng.getMaxLon();
-    right = Double.isNaN(r) ? -73.760262 : r;
-    final double b = mng.getMinLat();
-    bottom = Double.isNaN(b) ? 40.532589 : b;
-    final double t = mng.getMaxLat();
-    top = Double.isNaN(t) ? 40.862122 : t;
-    System.out.println("lon: " + left + " lat: " + top +
-        " lon: " + right + " lat: " + bottom);
+    cache = new ProjectionCache(new Projection(mng));
+    System.out.println(cache.getProjection());
+    chartTime = previousTime(curTime);
     onChange();
   }
 
   /**
-   * Fills the whole bar chart.
+   * Computes the bar chart for the given time in a back buffer. When the
+   * displayed chart is exactly one slice behind only the new last slot is
+   * counted. The computation is aborted as soon as newer settings arrive.
    * 
+   * @param time The time of the first slot.
+   * @param gen The generation of the settings.
+   * @return Whether the new chart was published.
    * @throws IOException I/O Exception.
    */
-  protected void fillBarChart() throws IOException {
-    synchronized(bc) {
-      needUpdate = false;
-      long time = previousTime(curTime);
-      for(int i = 0; i < bc.size(); ++i) {
-        final long startInterval = time + getIntervalFrom();
-        final long endInterval = time + getIntervalTo();
-        // red
-        final int cA = mng.count(startInterval, endInterval, 0);
-        bc.set(i, true, cA);
-        // blue
-        final int cB = mng.count(startInterval, endInterval, 1);
-        bc.set(i, false, cB);
-        time = advanceTime(time);
+  protected boolean fillBarChart(final long time, final long gen) throws IOException {
+    final Slots front = bc.getSlots();
+    final Slots back = front.copy();
+    final int shift = front.getGeneration() == gen ? slotsBehind(front.getTime(), time) : -1;
+    if(shift > 0) {
+      long t = time;
+      for(int i = 0; i < back.size() - shift; ++i) {
+        t = advanceTime(t);
       }
-    }
+      back.shift(shift);
+      if(!fillSlots(back, t, back.size() - shift, shift, gen)) return false;
+    } else if(!fillSlots(back, time, 0, back.size(), gen)) return false;
+    back.setOrigin(time, gen);
+    if(generation.get() != gen) return false;
+    return bc.publish(front, back);
   }
 
   /**
-   * Fills the last slot and advances the bar chart.
+   * Computes how many slices the bar chart is behind. Skipped gaps are
+   * handled by shifting the chart by more than one slot.
    * 
-   * @param time The time of the second slot (the current time).
+   * @param chart The time of the first slot of the chart.
+   * @param time The time of the first slot.
+   * @return The number of slices in the range <code>(0, size)</code> or
+   *         <code>-1</code> if the chart cannot be shifted.
+   */
+  private int slotsBehind(final long chart, final long time) {
+    final long step = getTimeSlice();
+    if(chart >= time || (time - chart) % step != 0) return -1;
+    final long behind = (time - chart) / step;
+    return behind < bc.size() ? (int) behind : -1;
+  }
+
+  /**
+   * Fills consecutive slots of the bar chart. Slots are counted in as few
+   * batches as possible. A new batch is only needed when the time wraps
+   * around.
+   * 
+   * @param slots The slots to fill.
+   * @param time The time of the first slot.
+   * @param from The index of the first slot.
+   * @param num The number of slots to fill.
+   * @param gen The generation of the settings.
+   * @return Whether all slots were filled. This is not the case when newer
+   *         settings arrived in the meantime.
    * @throws IOException I/O Exception.
    */
-  private void fillLastSlot(final long time) throws IOException {
-    synchronized(bc) {
-      long t = time;
-      for(int i = 0; i < bc.size() - 1; ++i) {
-        t = advanceTime(t);
+  private boolean fillSlots(final Slots slots, final long time,
+      final int from, final int num, final long gen) throws IOException {
+    final long step = getTimeSlice();
+    final long end = mng.getEndTime();
+    long t = time;
+    int i = from;
+    while(i < from + num) {
+      if(generation.get() != gen) return false;
+      final long steps = t > end ? 0L : (end - t) / step;
+      final int n = (int) Math.min(from + num - i, steps + 1L);
+      final SliceTable table = sliceTable;
+      final int s = table != null && table.getGeneration() == gen ? table.slice(t) : -1;
+      if(s >= 0 && s + n <= table.size()) {
+        final int[] counts = new int[n];
+        for(int k = 0; k < n; ++k) {
+          counts[k] = table.count(s + k);
+        }
+        // the table has no vehicles
+        slots.set(i, counts, counts);
+      } else {
+        final int[][] counts = mng.countHistogram(
+            t, step, getIntervalFrom(), getIntervalTo(), n);
+        // red and blue
+        slots.set(i, counts[0], counts[1]);
       }
-      final long startInterval = t + getIntervalFrom();
-      final long endInterval = t + getIntervalTo();
-      // red
-      final int cA = mng.count(startInterval, endInterval, 0);
-      bc.set(0, true, cA);
-      // blue
-      final int cB = mng.count(startInterval, endInterval, 1);
-      bc.set(0, false, cB);
-      bc.shift(1);
+      t = advanceTime(t + (n - 1) * step);
+      i += n;
     }
+    return true;
   }
 
   /** The update loop. */
@@ -113,16 +160,25 @@ public class TripSlicer extends TimeSlicer {
     @Override
     public void run() {
       while(!Thread.currentThread().isInterrupted()) {
-        if(needUpdate) {
+        final long gen = generation.get();
+        final long time = chartTime;
+        final Slots cur = bc.getSlots();
+        long delay = 100L;
+        if(cur.getGeneration() != gen || cur.getTime() != time) {
           try {
-            fillBarChart();
+            fillBarChart(time, gen);
+            continue;
           } catch(final IOException e) {
             e.printStackTrace();
+            // back off instead of spinning on a persistent error
+            delay = 1000L;
           }
         }
         try {
-          synchronized(bc) {
-            bc.wait(100);
+          synchronized(updateLock) {
+            if(generation.get() == gen && chartTime == time) {
+              updateLock.wait(delay);
+            }
           }
         } catch(final InterruptedException e) {
           return;
@@ -132,15 +188,19 @@ public class TripSlicer extends TimeSlicer {
 
   };
 
+  /** The lock to wait for bar chart updates. */
+  private final Object updateLock = new Object();
+  /** The generation of the settings. */
+  protected final AtomicLong generation = new AtomicLong();
+  /** The time of the first slot of the bar chart. */
+  protected volatile long chartTime;
   /** The current updating thread. */
   private Thread updater;
-  /** Whether the bar chart needs an update. */
-  protected volatile boolean needUpdate = false;
 
-  @Override
-  protected void onChange() {
-    if(updater == null || !updater.isAlive()) {
-      synchronized(bc) {
+  /** Notifies the updater that the bar chart needs to be recomputed. */
+  private void requestUpdate() {
+    synchronized(updateLock) {
+      if(updater == null || !updater.isAlive()) {
         if(updater != null) {
           updater.interrupt();
         }
@@ -148,42 +208,155 @@ public class TripSlicer extends TimeSlicer {
         updater.setDaemon(true);
         updater.start();
       }
-    } else if(needUpdate) return;
-    synchronized(bc) {
-      needUpdate = true;
-      bc.notifyAll();
+      updateLock.notifyAll();
+    }
+  }
+
+  /** The slice table for the current settings or <code>null</code>. */
+  private volatile SliceTable sliceTable;
+
+  /**
+   * Builds the slice table for the current settings in the background. This
+   * only works for sorted stores.
+   * 
+   * @param time The time of a slice the table is aligned to.
+   */
+  private void buildSliceTable(final long time) {
+    if(!(mng instanceof IndexedTripManager)) return;
+    final IndexedTripManager im = (IndexedTripManager) mng;
+    final long gen = generation.get();
+    final long step = getTimeSlice();
+    final long from = getIntervalFrom();
+    final long to = getIntervalTo();
+    final Thread t = new Thread() {
+
+      @Override
+      public void run() {
+        try {
+          final SliceTable table = SliceTable.build(im, time, step, from, to, generation, gen);
+          if(table == null || generation.get() != gen) return;
+          sliceTable = table;
+          requestUpdate();
+        } catch(final IOException e) {
+          e.printStackTrace();
+        }
+      }
+
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Reads the trips of a slice. The slice table is used if it covers the
+   * slice.
+   * 
+   * @param index The index hint of the slice.
+   * @param time The time of the slice.
+   * @param gen The generation of the settings.
+   * @return The trips of the slice.
+   * @throws IOException I/O Exception.
+   */
+  private List<Trip> readSlice(final long index, final long time, final long gen)
+      throws IOException {
+    final SliceTable table = sliceTable;
+    if(table != null && table.getGeneration() == gen) {
+      final int s = table.slice(time);
+      if(s >= 0) return ((IndexedTripManager) mng).readRange(
+          table.getFirstIndex(s), table.getLastIndex(s));
+    }
+    return mng.read(index, time + getIntervalFrom(), time + getIntervalTo());
+  }
+
+  @Override
+  protected void onChange() {
+    generation.incrementAndGet();
+    sliceTable = null;
+    requestUpdate();
+    buildSliceTable(curTime);
+  }
+
+  /**
+   * Continues with the slice containing the given time. The slice is aligned
+   * with the current slices so that the slice table stays valid. Slices that
+   * are prepared already are dropped and the slice and the bar chart of the
+   * new position are computed right away. The particles in flight are
+   * discarded with the next slice. Times outside of the data continue at the
+   * start.
+   * 
+   * @param time The time.
+   * @throws IOException I/O Exception.
+   */
+  public void seek(final long time) throws IOException {
+    final long start = mng.getStartTime();
+    final long step = getTimeSlice();
+    synchronized(cursorLock) {
+      long t = time - mod(time - curTime, step);
+      if(t < start || t > mng.getEndTime()) {
+        t = start + mod(curTime - start, step);
+      }
+      curIndex = mng instanceof IndexedTripManager
+          ? ((IndexedTripManager) mng).indexOf(t + getIntervalFrom()) : -1L;
+      curTime = t;
+      chartTime = previousTime(t);
+      discard = true;
+      final SliceTable table = sliceTable;
+      final long gen = generation.incrementAndGet();
+      if(table != null && table.slice(t) >= 0) {
+        sliceTable = table.withGeneration(gen);
+      } else {
+        sliceTable = null;
+        buildSliceTable(t);
+      }
     }
+    requestUpdate();
+    LockSupport.unpark(preparer);
+  }
+
+  /**
+   * Computes the non-negative remainder.
+   * 
+   * @param a The dividend.
+   * @param b The positive divisor.
+   * @return The remainder.
+   */
+  private static long mod(final long a, final long b) {
+    return ((a % b) + b) % b;
   }
 
-  /** The leftmost longitude coordinate. */
-  private final double left;
-  /** The rightmost longitude coordinate. */
-  private final double right;
-  /** The bottom latitude coordinate. */
-  private final double bottom;
-  /** The top latitude coordinate. */
-  private final double top;
+  /**
+   * Getter.
+   * 
+   * @return The time of the next slice.
+   */
+  public long getCurrentTime() {
+    return curTime;
+  }
+
+  /** The cached projection onto the image. Only used by the producer. */
+  private volatile ProjectionCache cache;
+  /** The reused array of projected coordinates. */
+  private float[] coords;
 
   /**
-   * Converts longitude into a x coordinate.
+   * Setter.
    * 
-   * @param lon The longitude.
-   * @param width The display width.
-   * @return The x coordinate.
+   * @param mercator Whether to use the Web Mercator projection.
+   * @throws IOException I/O Exception.
    */
-  private double getX(final double lon, final int width) {
-    return (lon - left) / (right - left) * width;
+  public void setMercator(final boolean mercator) throws IOException {
+    if(mercator == isMercator()) return;
+    cache = new ProjectionCache(new Projection(mng, mercator));
+    onChange();
   }
 
   /**
-   * Converts Latitude into a y coordinate.
+   * Getter.
    * 
-   * @param lat The latitude.
-   * @param height The display height.
-   * @return The y coordinate.
+   * @return Whether the Web Mercator projection is used.
    */
-  private double getY(final double lat, final int height) {
-    return (lat - top) / (bottom - top) * height;
+  public boolean isMercator() {
+    return cache.getProjection().isMercator();
   }
 
   /** Whether to skip time slices with no trips. */
@@ -207,122 +380,343 @@ public class TripSlicer extends TimeSlicer {
     return SKIP_GAPS;
   }
 
+  /** The number of slices that are prepared ahead of time. */
+  private static final int SLICES_AHEAD = 2;
+
+  /** The prepared slices. */
+  private final SpscQueue<SliceSpawns> prepared = new SpscQueue<>(SLICES_AHEAD);
+  /** The reused table aggregating the trips of a slice. */
+  private final AggregationTable journeys = new AggregationTable();
+  /** The reused table binning the trips of a slice into grid cells. */
+  private final AggregationTable cells = new AggregationTable();
+  /** The maximal number of particles spawned per slice. */
+  private volatile int particleBudget = 5000;
+  /**
+   * The cell sizes in pixels of the levels of detail from fine to coarse. The
+   * exact positions are used when the budget allows it.
+   */
+  private volatile double[] cellSizes = { 2.0, 4.0, 8.0, 16.0, 32.0, 64.0 };
+
   /**
-   * A trip for aggregation.
+   * Setter.
    * 
-   * @author Joschi <josua.krause@gmail.com>
+   * @param particleBudget The maximal number of particles spawned per slice.
+   *          The coarsest level of detail may still exceed the budget.
    */
-  private static final class Aggregated {
-
-    /** The start position. */
-    public final Point2D from;
-    /** The end position. */
-    public final Point2D to;
-    /** The duration in slices. */
-    public final int slices;
-    /** Vehicle. */
-    public final long vehicle;
-
-    /**
-     * Creates a trip for aggregation.
-     * 
-     * @param from The start position.
-     * @param to The end position.
-     * @param slices The duration in slices.
-     * @param vehicle The vehicle.
-     */
-    public Aggregated(final Point2D from, final Point2D to,
-        final int slices, final long vehicle) {
-      this.from = Objects.requireNonNull(from);
-      this.to = Objects.requireNonNull(to);
-      this.vehicle = vehicle;
-      this.slices = slices;
+  public void setParticleBudget(final int particleBudget) {
+    if(particleBudget <= 0) throw new IllegalArgumentException("" + particleBudget);
+    this.particleBudget = particleBudget;
+    onChange();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The maximal number of particles spawned per slice.
+   */
+  public int getParticleBudget() {
+    return particleBudget;
+  }
+
+  /**
+   * Setter.
+   * 
+   * @param cellSizes The cell sizes in pixels of the levels of detail in
+   *          ascending order.
+   */
+  public void setCellSizes(final double... cellSizes) {
+    for(int i = 0; i < cellSizes.length; ++i) {
+      if(cellSizes[i] <= 0 || (i > 0 && cellSizes[i] <= cellSizes[i - 1])) {
+        throw new IllegalArgumentException(
+            "cell sizes must be positive and ascending: " + Arrays.toString(cellSizes));
+      }
     }
+    this.cellSizes = cellSizes.clone();
+    onChange();
+  }
 
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + from.hashCode();
-      result = prime * result + slices;
-      result = prime * result + to.hashCode();
-      result = prime * result + ((Long) vehicle).hashCode();
-      return result;
+  /**
+   * Getter.
+   * 
+   * @return The cell sizes in pixels of the levels of detail.
+   */
+  public double[] getCellSizes() {
+    return cellSizes.clone();
+  }
+
+  /**
+   * Computes the center of the grid cell containing the given coordinate.
+   * 
+   * @param v The coordinate.
+   * @param cell The cell size.
+   * @return The center of the cell.
+   */
+  private static double cellCenter(final double v, final double cell) {
+    return (Math.floor(v / cell) + 0.5) * cell;
+  }
+
+  /**
+   * Chooses the finest level of detail that fits into the particle budget.
+   * Trips are binned by their start cell and end cell.
+   * 
+   * @return The table containing the aggregated trips.
+   */
+  private AggregationTable levelOfDetail() {
+    final int budget = particleBudget;
+    if(journeys.size() <= budget) return journeys;
+    for(final double cell : cellSizes) {
+      cells.clear();
+      for(int e = 0; e < journeys.size(); ++e) {
+        cells.bin(cellCenter(journeys.getFromX(e), cell),
+            cellCenter(journeys.getFromY(e), cell),
+            cellCenter(journeys.getToX(e), cell),
+            cellCenter(journeys.getToY(e), cell),
+            journeys.getSlices(e), journeys.getVehicle(e), journeys.getCount(e));
+      }
+      if(cells.size() <= budget) {
+        break;
+      }
     }
+    return cells.size() > 0 ? cells : journeys;
+  }
 
-    @Override
-    public boolean equals(final Object obj) {
-      if(this == obj) return true;
-      if(!(obj instanceof Aggregated)) return false;
-      final Aggregated other = (Aggregated) obj;
-      if(!from.equals(other.from)) return false;
-      if(!to.equals(other.to)) return false;
-      if(vehicle != other.vehicle) return false;
-      return slices == other.slices;
+  /** The width of the image slices are prepared for. */
+  private volatile int prepWidth = -1;
+  /** The height of the image slices are prepared for. */
+  private volatile int prepHeight = -1;
+  /** The viewport slices are prepared for or <code>null</code>. */
+  private volatile Rectangle2D prepViewport;
+  /**
+   * The largest size of a particle in pixels of the view assumed when culling
+   * trips.
+   */
+  private static final double CULL_MARGIN = 16.0;
+  /** The culling margin in pixels of the image slices are prepared for. */
+  private volatile double prepMargin = CULL_MARGIN;
+  /** The failure of the preparing thread. */
+  private volatile IOException failure;
+  /** The preparing thread. */
+  private Thread preparer;
+
+  /**
+   * Computes the spawn list of the next non-empty slice. When gaps are not
+   * skipped the next slice is always used.
+   * 
+   * @param time The time of the slice.
+   * @param index The index hint of the slice.
+   * @param gen The generation of the settings.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   * @return The spawn list.
+   * @throws IOException I/O Exception.
+   */
+  private SliceSpawns prepare(final long time, final long index, final long gen,
+      final int width, final int height) throws IOException {
+    long t = time;
+    long i = index;
+    if(SKIP_GAPS) {
+      final long next = nextNonEmpty(t);
+      if(next != t) {
+        t = next;
+        i = -1L;
+      }
     }
+    final long startInterval = t + getIntervalFrom();
+    final long endInterval = t + getIntervalTo();
+    final List<Trip> list = readSlice(i, t, gen);
+    coords = cache.project(list, width, height, coords);
+    final Rectangle2D view = prepViewport;
+    final double margin = prepMargin;
+    journeys.clear();
+    for(int k = 0; k < list.size(); ++k) {
+      final int off = k * 4;
+      if(!ParticleEngine.canEnter(view, coords[off], coords[off + 1],
+          coords[off + 2], coords[off + 3], margin)) {
+        continue;
+      }
+      final Trip trip = list.get(k);
+      final int slices = getNumberOfSlices(t, trip.getDropoffTime());
+      journeys.add(coords[off], coords[off + 1], coords[off + 2], coords[off + 3],
+          slices, trip.getVehicle());
+    }
+    final int no = list.size();
+    if(no != 0) {
+      i = list.get(list.size() - 1).getIndex() + 1L;
+    }
+    final long lastTime = t;
+    t = advanceTime(t);
+    if(t < lastTime) {
+      i = 0L;
+      fullCycle(t);
+    }
+    System.out.println("trips: " + no);
+    return new SliceSpawns(
+        levelOfDetail(), gen, width, height, startInterval, endInterval, t, i);
+  }
 
-  } // Aggregated
+  /**
+   * Finds the next slice with trips. When there are no more trips the search
+   * continues from the start.
+   * 
+   * @param time The time of the first slice to consider.
+   * @return The time of the next slice with trips or the given time if there
+   *         are no trips at all.
+   * @throws IOException I/O Exception.
+   */
+  private long nextNonEmpty(final long time) throws IOException {
+    final long from = getIntervalFrom();
+    final long to = getIntervalTo();
+    final long step = getTimeSlice();
+    final long next = mng.nextTripTimeAtOrAfter(time, from, to, step);
+    if(next >= 0 && next <= mng.getEndTime()) return next;
+    final long start = mng.getStartTime();
+    final long first = mng.nextTripTimeAtOrAfter(start, from, to, step);
+    if(first < 0) return time;
+    fullCycle(first);
+    return first;
+  }
 
-  @Override
-  public void timeSlice(final ParticleProvider provider, final int width, final int height) {
-    if(curTime < 0) throw new IllegalStateException("no start");
-    int skipped = -1;
-    final SimpleDateFormat fmt = new SimpleDateFormat("YYYY-MM-dd E HH:mm:ss ");
-    try {
-      int no;
-      do {
-        ++skipped;
-        final long startInterval = curTime + getIntervalFrom();
-        final long endInterval = curTime + getIntervalTo();
-        final List<Trip> list = mng.read(curIndex, startInterval, endInterval);
-        final Map<Aggregated, Integer> journeys = new HashMap<>();
-        for(final Trip t : list) {
-          final int slices = getNumberOfSlices(curTime, t.getDropoffTime());
-          final Point2D from = new Point2D.Double(getX(t.getPickupLon(), width),
-              getY(t.getPickupLat(), height));
-          final Point2D to = new Point2D.Double(getX(t.getDropoffLon(), width),
-              getY(t.getDropoffLat(), height));
-          final Aggregated agg = new Aggregated(from, to, slices, t.getVehicle());
-          Integer num = journeys.get(agg);
-          if(num == null) {
-            num = 0;
-          }
-          journeys.put(agg, num + 1);
+  /**
+   * Is called when the time wraps around.
+   * 
+   * @param time The time of the first slice after the wrap.
+   */
+  private void fullCycle(final long time) {
+    System.out.println("full cycle!");
+    final SliceTable table = sliceTable;
+    if(table != null && table.slice(time) < 0) {
+      // the slices after the wrap are not aligned with the table
+      buildSliceTable(time);
+    }
+  }
+
+  /**
+   * The loop preparing slices ahead of time. The loop starts over from the
+   * last consumed slice whenever the settings or the size of the image change.
+   */
+  private final Runnable prepareLoop = new Runnable() {
+
+    @Override
+    public void run() {
+      long gen = -1L;
+      int width = -1;
+      int height = -1;
+      long time = 0L;
+      long index = 0L;
+      while(!Thread.currentThread().isInterrupted()) {
+        final long g = generation.get();
+        final int w = prepWidth;
+        final int h = prepHeight;
+        if(g != gen || w != width || h != height) {
+          gen = g;
+          width = w;
+          height = h;
+          time = curTime;
+          index = curIndex;
         }
-        for(final Entry<Aggregated, Integer> e : journeys.entrySet()) {
-          final Aggregated agg = e.getKey();
-          final int num = e.getValue();
-          if(num < getThreshold()) {
-            continue;
-          }
-          final int col = agg.vehicle == 0 ? Particle.RED : Particle.BLUE;
-          provider.startPath(agg.from.getX(), agg.from.getY(),
-              agg.to, agg.slices, Math.log(num) + 1.0, col);
+        if(prepared.isFull()) {
+          LockSupport.parkNanos(10L * 1000L * 1000L);
+          continue;
         }
-        no = list.size();
-        if(no != 0) {
-          curIndex = list.get(list.size() - 1).getIndex() + 1L;
+        final SliceSpawns s;
+        try {
+          s = prepare(time, index, gen, width, height);
+        } catch(final IOException e) {
+          failure = e;
+          return;
         }
-        final long lastTime = curTime;
-        curTime = advanceTime(curTime);
-        if(curTime < lastTime) {
-          curIndex = 0L;
-          System.out.println("full cycle!");
+        if(!isCurrent(s)) {
+          continue;
         }
-        System.out.println("trips: " + no);
-        setInfoText(
-            fmt.format(new Date(startInterval)), fmt.format(new Date(endInterval)));
-      } while(SKIP_GAPS && no == 0);
-      if(skipped == 0) {
-        fillLastSlot(curTime);
-      } else {
-        fillBarChart();
+        prepared.offer(s);
+        time = s.getNextTime();
+        index = s.getNextIndex();
+      }
+    }
+
+  };
+
+  /** Ensures that slices are being prepared. */
+  private synchronized void ensurePreparer() {
+    if(preparer != null && preparer.isAlive()) return;
+    if(failure != null) throw new IllegalStateException(failure);
+    preparer = new Thread(prepareLoop);
+    preparer.setDaemon(true);
+    preparer.start();
+  }
+
+  /**
+   * Checks whether a slice was prepared with the current settings for the
+   * current size of the image.
+   * 
+   * @param s The slice.
+   * @return Whether the slice can be spawned.
+   */
+  private boolean isCurrent(final SliceSpawns s) {
+    return s.getGeneration() == generation.get()
+        && s.getWidth() == prepWidth && s.getHeight() == prepHeight;
+  }
+
+  /**
+   * Waits for the next slice prepared with the current settings. Slices
+   * prepared with outdated settings or for another size of the image are
+   * dropped.
+   * 
+   * @return The next slice.
+   */
+  private SliceSpawns nextPrepared() {
+    for(;;) {
+      final SliceSpawns s = prepared.poll();
+      LockSupport.unpark(preparer);
+      if(s == null) {
+        ensurePreparer();
+        LockSupport.parkNanos(1000L * 1000L);
+        continue;
       }
-    } catch(final IOException io) {
-      throw new IllegalStateException(io);
+      if(isCurrent(s)) return s;
     }
   }
 
+  @Override
+  public void timeSlice(final ParticleProvider provider, final int width, final int height) {
+    if(curTime < 0) throw new IllegalStateException("no start");
+    if(width != prepWidth || height != prepHeight) {
+      // the slice table and the bar chart do not depend on the size
+      prepWidth = width;
+      prepHeight = height;
+      LockSupport.unpark(preparer);
+    }
+    prepViewport = provider.getViewport();
+    prepMargin = CULL_MARGIN * provider.getPixelScale();
+    if(discard) {
+      discard = false;
+      provider.clear();
+    }
+    ensurePreparer();
+    final SliceSpawns s = nextPrepared();
+    final int threshold = getThreshold();
+    for(int e = 0; e < s.size(); ++e) {
+      final int num = s.getCount(e);
+      if(num < threshold) {
+        continue;
+      }
+      final int col = s.getVehicle(e) == 0 ? Particle.RED : Particle.BLUE;
+      provider.startPath(s.getFromX(e), s.getFromY(e), s.getToX(e), s.getToY(e),
+          s.getSlices(e), Math.log(num) + 1.0, col);
+    }
+    synchronized(cursorLock) {
+      // a seek during the spawn has moved the position already
+      if(s.getGeneration() != generation.get()) return;
+      curIndex = s.getNextIndex();
+      curTime = s.getNextTime();
+      chartTime = previousTime(curTime);
+    }
+    final SimpleDateFormat fmt = new SimpleDateFormat("YYYY-MM-dd E HH:mm:ss ");
+    setInfoText(fmt.format(new Date(s.getStartInterval())),
+        fmt.format(new Date(s.getEndInterval())));
+    requestUpdate();
+  }
+
   /**
    * Advances the time.
    * 